@@ -0,0 +1,36 @@
+package com.challenge.actuator;
+
+import com.challenge.service.purchase.BuyMode;
+import com.challenge.service.purchase.ContentionTracker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint showing the buy mode chosen for each tracked product
+ * and the latest mode changes.
+ */
+@Component
+@Endpoint(id = "buymodes")
+@RequiredArgsConstructor
+public class BuyModeEndpoint {
+
+    @Value("${transaction.buy.mode}")
+    private BuyMode buyMode;
+
+    private final ContentionTracker contentionTracker;
+
+    @ReadOperation
+    public Map<String, Object> buyModes() {
+        Map<String, Object> buyModes = new LinkedHashMap<>();
+        buyModes.put("configuredMode", buyMode);
+        buyModes.put("products", contentionTracker.getCurrentStates());
+        buyModes.put("history", contentionTracker.getHistory());
+        return buyModes;
+    }
+}
@@ -0,0 +1,62 @@
+package com.challenge.catalogue;
+
+import java.util.Locale;
+
+/**
+ * Reads the encodings a client accepts from its Accept-Encoding header. An encoding
+ * is accepted if it's listed with a quality value above 0; if it's not listed, the
+ * quality of the "*" wildcard applies. A coding with a malformed quality value is ignored.
+ */
+public final class AcceptEncoding {
+
+    private AcceptEncoding() {
+    }
+
+    /**
+     * Checks if gzip may be used for the response. "x-gzip" is taken as an alias of gzip.
+     *
+     * @param acceptEncoding value of the Accept-Encoding header, null if the header is missing
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        double gzipQuality = -1;
+        double wildcardQuality = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            int paramsStart = coding.indexOf(';');
+            String name = (paramsStart < 0 ? coding : coding.substring(0, paramsStart)).trim().toLowerCase(Locale.ROOT);
+            double quality = paramsStart < 0 ? 1 : quality(coding.substring(paramsStart + 1));
+            if (quality < 0) {
+                continue;
+            }
+
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (name.equals("*")) {
+                wildcardQuality = Math.max(wildcardQuality, quality);
+            }
+        }
+        return (gzipQuality >= 0 ? gzipQuality : wildcardQuality) > 0;
+    }
+
+    /**
+     * Reads the "q" parameter of a coding, 1 if it has none and -1 if it's malformed.
+     */
+    private static double quality(String params) {
+        for (String param : params.split(";")) {
+            int separator = param.indexOf('=');
+            if (separator < 0 || !param.substring(0, separator).trim().equalsIgnoreCase("q")) {
+                continue;
+            }
+            try {
+                double quality = Double.parseDouble(param.substring(separator + 1).trim());
+                return quality >= 0 && quality <= 1 ? quality : -1;
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+        return 1;
+    }
+}
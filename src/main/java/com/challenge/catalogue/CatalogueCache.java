@@ -0,0 +1,148 @@
+package com.challenge.catalogue;
+
+import com.challenge.dto.product.ProductPageDto;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache of the product catalogue pages. The catalogue has a version which
+ * is incremented whenever a product, its stock or its seller changes, and every cached
+ * page is only valid for the version it was read at. The version is used as the
+ * catalogue's ETag, so unchanged polls are answered without reading the pages at all.
+ * <p>
+ * The pages are cached already encoded as JSON, and gzipped if enabled, so a cached
+ * page is written to the response as it is, without being serialized again.
+ * <p>
+ * The version starts at the startup time, so that a version seen before a restart
+ * is not reused for a different catalogue. Changes made by other instances
+ * are not seen, so the cache assumes a single instance.
+ */
+@Component
+public class CatalogueCache {
+
+    /**
+     * Page size under which the whole catalogue is cached
+     */
+    public static final int WHOLE_CATALOGUE = 0;
+
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+    private final Map<PageKey, CataloguePage> pages = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper;
+    private final int maxEntries;
+    private final boolean gzipEnabled;
+
+    public CatalogueCache(ObjectMapper objectMapper,
+                          @Value("${product.catalogue.cache.maxEntries}") int maxEntries,
+                          @Value("${product.catalogue.gzip.enabled}") boolean gzipEnabled) {
+        this.objectMapper = objectMapper;
+        this.maxEntries = maxEntries;
+        this.gzipEnabled = gzipEnabled;
+    }
+
+    /**
+     * Gets the current version of the catalogue.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    public boolean isGzipEnabled() {
+        return gzipEnabled;
+    }
+
+    /**
+     * Gets a page of the catalogue, reading it only if it's not cached for the current version.
+     * The version is read before the page, so a page read while the catalogue changes
+     * is cached under the older version and is read again on the next request.
+     *
+     * @param after id of the last product of the previous page, null for the first page
+     * @param pageSize size of the page
+     * @param pageLoader reads the page from the database
+     */
+    public CataloguePage getPage(UUID after, int pageSize, Supplier<ProductPageDto> pageLoader) {
+        long currentVersion = version.get();
+        PageKey key = new PageKey(after, pageSize);
+
+        CataloguePage page = pages.get(key);
+        if (page != null && page.getVersion() == currentVersion) {
+            return page;
+        }
+
+        page = encode(currentVersion, pageLoader.get());
+        if (pages.size() < maxEntries || pages.containsKey(key)) {
+            pages.put(key, page);
+        }
+        return page;
+    }
+
+    /**
+     * Increments the version once the current transaction is committed, or right away
+     * outside of a transaction. The version is not incremented before the commit, so that
+     * a page read in between can't be cached with the new version but the old products.
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    incrementVersion();
+                }
+            });
+        } else {
+            incrementVersion();
+        }
+    }
+
+    private CataloguePage encode(long pageVersion, ProductPageDto productPage) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(productPage.getProducts());
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Unable to encode catalogue page: " + ex.getMessage(), ex);
+        }
+
+        byte[] gzippedJson = gzipEnabled ? gzip(json) : null;
+        return new CataloguePage(pageVersion, productPage.getNextCursor(), json, gzippedJson);
+    }
+
+    private byte[] gzip(byte[] json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(json);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to gzip catalogue page: " + ex.getMessage(), ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void incrementVersion() {
+        version.incrementAndGet();
+        pages.clear();
+    }
+
+    /**
+     * Cursor and size of a cached page
+     */
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class PageKey {
+
+        private final UUID after;
+        private final int pageSize;
+    }
+}
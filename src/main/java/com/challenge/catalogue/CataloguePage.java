@@ -0,0 +1,29 @@
+package com.challenge.catalogue;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * A page of the product catalogue, already encoded as the JSON array of its products.
+ * The gzipped JSON is only kept if gzip is enabled.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CataloguePage {
+
+    /**
+     * Version of the catalogue the page was read at
+     */
+    private final long version;
+
+    /**
+     * Id to continue after, or null if this is the last page
+     */
+    private final UUID nextCursor;
+
+    private final byte[] json;
+
+    private final byte[] gzippedJson;
+}
@@ -0,0 +1,101 @@
+package com.challenge.coin;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Change-making engine for the allowed coins. The lookup tables are computed once
+ * at startup, so a calculation only walks the tables and allocates the result.
+ * <p>
+ * The tables hold the optimal (minimum number of coins) solution for every amount up to
+ * (largestCoin - 1) * secondLargestCoin. An optimal solution never contains that many
+ * coins smaller than the largest one (a subset of them would add up to a multiple of the
+ * largest coin and could be replaced by fewer coins), so any bigger amount is reduced into
+ * the table range by using the largest coin first. This keeps the result optimal for
+ * non-canonical coin systems too, where the greedy approach picks the wrong coins.
+ */
+@Component
+public class ChangeCalculator {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final CoinRegistry coinRegistry;
+    private final int tableLimit;
+
+    /**
+     * Minimum number of coins needed for each amount in the table range
+     */
+    private final int[] minCoins;
+
+    /**
+     * Registry index of a coin used by an optimal solution for each amount
+     */
+    private final int[] coinIndex;
+
+    public ChangeCalculator(CoinRegistry coinRegistry) {
+        this.coinRegistry = coinRegistry;
+        this.tableLimit = coinRegistry.size() > 1
+                ? (coinRegistry.getDenomination(0) - 1) * coinRegistry.getDenomination(1)
+                : 0;
+        this.minCoins = new int[tableLimit + 1];
+        this.coinIndex = new int[tableLimit + 1];
+        buildTables();
+    }
+
+    /**
+     * Calculates the change for the given amount using the minimum number of coins.
+     *
+     * @param amount sum of coins we want to reach
+     * @return the change or empty if the amount can't be made out of the allowed coins
+     */
+    public Optional<CoinChange> calculate(int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Change amount can't be negative: " + amount);
+        }
+
+        int[] counts = new int[coinRegistry.size()];
+        int remainder = amount;
+
+        // amounts outside the tables always contain the largest coin
+        if (remainder > tableLimit) {
+            int largestCoin = coinRegistry.getDenomination(0);
+            int largestCoinCount = (remainder - tableLimit + largestCoin - 1) / largestCoin;
+            counts[0] = largestCoinCount;
+            remainder -= largestCoinCount * largestCoin;
+        }
+
+        if (remainder < 0 || minCoins[remainder] == UNREACHABLE) {
+            return Optional.empty();
+        }
+
+        while (remainder > 0) {
+            int index = coinIndex[remainder];
+            counts[index]++;
+            remainder -= coinRegistry.getDenomination(index);
+        }
+
+        return Optional.of(new CoinChange(coinRegistry, counts));
+    }
+
+    /**
+     * Fills the tables bottom-up. Coins are tried in descending order, so on ties
+     * the solution using the larger coin is kept.
+     */
+    private void buildTables() {
+        Arrays.fill(minCoins, UNREACHABLE);
+        minCoins[0] = 0;
+
+        for (int amount = 1; amount <= tableLimit; amount++) {
+            for (int i = 0; i < coinRegistry.size(); i++) {
+                int coin = coinRegistry.getDenomination(i);
+                if (coin <= amount && minCoins[amount - coin] != UNREACHABLE
+                        && minCoins[amount - coin] + 1 < minCoins[amount]) {
+                    minCoins[amount] = minCoins[amount - coin] + 1;
+                    coinIndex[amount] = i;
+                }
+            }
+        }
+    }
+}
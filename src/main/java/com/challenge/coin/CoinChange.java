@@ -0,0 +1,68 @@
+package com.challenge.coin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a change calculation. It holds the number of coins returned for
+ * each denomination, indexed the same way as the {@link CoinRegistry}.
+ */
+public final class CoinChange {
+
+    private final CoinRegistry coinRegistry;
+    private final int[] counts;
+
+    CoinChange(CoinRegistry coinRegistry, int[] counts) {
+        this.coinRegistry = coinRegistry;
+        this.counts = counts;
+    }
+
+    /**
+     * Number of coins of the denomination found at the given registry index.
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Total number of coins in the change.
+     */
+    public int getCoinCount() {
+        int coinCount = 0;
+        for (int count : counts) {
+            coinCount += count;
+        }
+        return coinCount;
+    }
+
+    /**
+     * Sum of all the coins in the change.
+     */
+    public int getTotal() {
+        int total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i] * coinRegistry.getDenomination(i);
+        }
+        return total;
+    }
+
+    /**
+     * Expands the change into a list of coins in descending order.
+     */
+    public List<Integer> toCoinList() {
+        int coinCount = getCoinCount();
+        if (coinCount == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Integer> coins = new ArrayList<>(coinCount);
+        for (int i = 0; i < counts.length; i++) {
+            Integer coin = coinRegistry.getDenomination(i);
+            for (int j = 0; j < counts[i]; j++) {
+                coins.add(coin);
+            }
+        }
+        return coins;
+    }
+}
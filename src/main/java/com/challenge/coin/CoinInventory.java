@@ -0,0 +1,411 @@
+package com.challenge.coin;
+
+import com.challenge.entity.CoinCount;
+import com.challenge.repository.CoinCountRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Keeps track of the physical coins found in the machine. Coins are counted in
+ * when they are deposited and counted out when a deposit is paid back.
+ * <p>
+ * Every denomination has its own lock-free counter. The counters are spaced one cache
+ * line apart so that concurrent updates of different denominations don't contend.
+ * <p>
+ * The counts are saved to the database behind the counters: the coins counted in or out
+ * are also added to an unsaved change, which a scheduled job adds to the saved counts.
+ * The counts are loaded at startup, so a crash only loses the changes of one interval.
+ * The job also reads the counts back, so the changes saved by other instances are seen
+ * one interval late; the counts are only exact with a single instance.
+ */
+@Slf4j
+@Component
+public class CoinInventory {
+
+    /**
+     * Distance between two counters (16 ints = 64 bytes)
+     */
+    private static final int STRIDE = 16;
+
+    /**
+     * How many times a withdrawal is retried when the counters change under it
+     */
+    private static final int MAX_TAKE_ATTEMPTS = 4;
+
+    /**
+     * Largest amount, in units of the smallest step between the denominations, for which
+     * a combination of the available coins is searched when the largest coins don't add up
+     */
+    private static final int MAX_SEARCH_UNITS = 100_000;
+
+    private final CoinRegistry coinRegistry;
+    private final ChangeCalculator changeCalculator;
+    private final CoinCountRepository coinCountRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicIntegerArray counters;
+    private final boolean enabled;
+    private final int initialCount;
+
+    /**
+     * Coins counted in or out since the last save, spaced like the counters
+     */
+    private final AtomicIntegerArray unsaved;
+
+    /**
+     * Counts read at the last save, only used while saving. A counter is always
+     * its saved count plus its unsaved change.
+     */
+    private final int[] savedCounts;
+
+    /**
+     * Greatest common divisor of the denominations, every change is a multiple of it
+     */
+    private final int unit;
+
+    public CoinInventory(CoinRegistry coinRegistry,
+                         ChangeCalculator changeCalculator,
+                         CoinCountRepository coinCountRepository,
+                         TransactionTemplate transactionTemplate,
+                         MeterRegistry meterRegistry,
+                         @Value("${coin.inventory.enabled}") boolean enabled,
+                         @Value("${coin.inventory.initialCount}") int initialCount) {
+        this.coinRegistry = coinRegistry;
+        this.changeCalculator = changeCalculator;
+        this.coinCountRepository = coinCountRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.initialCount = initialCount;
+        this.counters = new AtomicIntegerArray(coinRegistry.size() * STRIDE);
+        this.unsaved = new AtomicIntegerArray(coinRegistry.size() * STRIDE);
+        this.savedCounts = new int[coinRegistry.size()];
+
+        int gcd = 0;
+        for (int i = 0; i < coinRegistry.size(); i++) {
+            int coin = coinRegistry.getDenomination(i);
+            while (coin != 0) {
+                int rest = gcd % coin;
+                gcd = coin;
+                coin = rest;
+            }
+        }
+        this.unit = gcd;
+
+        for (int i = 0; i < coinRegistry.size(); i++) {
+            counters.set(i * STRIDE, initialCount);
+            savedCounts[i] = initialCount;
+
+            int index = i;
+            Gauge.builder("vending.coins.available", () -> counters.get(index * STRIDE))
+                    .tag("coin", String.valueOf(coinRegistry.getDenomination(i)))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Loads the counts saved by the previous runs. The coins counted for the first
+     * time are saved with the initial count.
+     */
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < coinRegistry.size(); i++) {
+                coinCountRepository.insertIfAbsent(coinRegistry.getDenomination(i), initialCount);
+            }
+        });
+        save();
+    }
+
+    /**
+     * Scheduled job to add the unsaved changes to the saved counts, and to read the counts
+     * back with the changes saved by other instances. The changes are kept unsaved
+     * if they can't be saved.
+     */
+    @Scheduled(fixedDelayString = "${coin.inventory.saveIntervalMillis}",
+            initialDelayString = "${coin.inventory.saveIntervalMillis}")
+    public synchronized void save() {
+        if (!enabled) {
+            return;
+        }
+
+        int[] changes = new int[coinRegistry.size()];
+        for (int i = 0; i < changes.length; i++) {
+            changes[i] = unsaved.getAndSet(i * STRIDE, 0);
+        }
+
+        List<CoinCount> coinCounts;
+        try {
+            coinCounts = transactionTemplate.execute(status -> {
+                for (int i = 0; i < changes.length; i++) {
+                    if (changes[i] != 0) {
+                        coinCountRepository.addToCount(coinRegistry.getDenomination(i), changes[i]);
+                    }
+                }
+                return coinCountRepository.findAll();
+            });
+        } catch (RuntimeException ex) {
+            for (int i = 0; i < changes.length; i++) {
+                unsaved.addAndGet(i * STRIDE, changes[i]);
+            }
+            throw ex;
+        }
+
+        for (CoinCount coinCount : coinCounts) {
+            int index = coinRegistry.indexOf(coinCount.getCoin());
+            if (index == -1) {
+                continue;
+            }
+            // only the changes saved by other instances are missing from the counter
+            counters.addAndGet(index * STRIDE, coinCount.getCount() - savedCounts[index] - changes[index]);
+            savedCounts[index] = coinCount.getCount();
+        }
+    }
+
+    @PreDestroy
+    public void saveAll() {
+        save();
+    }
+
+    /**
+     * Gets the number of available coins of the given denomination.
+     */
+    public int getAvailable(int coin) {
+        return counters.get(counterIndex(coin));
+    }
+
+    /**
+     * Counts in a deposited coin. When called inside a transaction, the coin
+     * is counted only after the transaction commits.
+     */
+    public void deposit(int coin) {
+        int counterIndex = counterIndex(coin);
+        runAfterCommit(() -> count(counterIndex, 1));
+    }
+
+    /**
+     * Counts in several deposited coins of the same denomination. When called
+     * inside a transaction, the coins are counted only after the transaction commits.
+     */
+    public void deposit(int coin, int count) {
+        int counterIndex = counterIndex(coin);
+        runAfterCommit(() -> count(counterIndex, count));
+    }
+
+    /**
+     * Finds the change for the given amount using only the coins that are currently
+     * available. Nothing is withdrawn, so this can be used to check if a purchase
+     * can go through.
+     *
+     * @return the change or empty if it can't be made out of the available coins
+     */
+    public Optional<CoinChange> findChange(int amount) {
+        Optional<CoinChange> optimalChange = changeCalculator.calculate(amount);
+        if (!enabled || optimalChange.isEmpty() || isAvailable(optimalChange.get())) {
+            return optimalChange;
+        }
+
+        // the optimal change can't be given, look for another combination
+        int[] counts = findBoundedChange(amount, snapshot());
+        return counts == null ? Optional.empty() : Optional.of(new CoinChange(coinRegistry, counts));
+    }
+
+    /**
+     * Withdraws the coins needed to pay out the given amount. When called inside a
+     * transaction, the coins are given back if the transaction is rolled back.
+     *
+     * @return the withdrawn coins or empty if the amount can't be paid out
+     */
+    public Optional<CoinChange> take(int amount) {
+        for (int attempt = 0; attempt < MAX_TAKE_ATTEMPTS; attempt++) {
+            Optional<CoinChange> change = findChange(amount);
+            if (change.isEmpty()) {
+                return Optional.empty();
+            }
+            if (!enabled) {
+                return change;
+            }
+            if (tryWithdraw(change.get())) {
+                runAfterRollback(() -> giveBack(change.get()));
+                return change;
+            }
+        }
+
+        log.warn("Unable to withdraw change for amount: {} due to concurrent updates", amount);
+        return Optional.empty();
+    }
+
+    private boolean isAvailable(CoinChange change) {
+        for (int i = 0; i < coinRegistry.size(); i++) {
+            if (change.getCount(i) > counters.get(i * STRIDE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decrements every counter by the coins found in the change. If one of the
+     * counters doesn't have enough coins, the already withdrawn coins are put back.
+     */
+    private boolean tryWithdraw(CoinChange change) {
+        for (int i = 0; i < coinRegistry.size(); i++) {
+            if (!tryDecrement(i * STRIDE, change.getCount(i))) {
+                for (int j = 0; j < i; j++) {
+                    counters.addAndGet(j * STRIDE, change.getCount(j));
+                }
+                return false;
+            }
+        }
+        for (int i = 0; i < coinRegistry.size(); i++) {
+            unsaved.addAndGet(i * STRIDE, -change.getCount(i));
+        }
+        return true;
+    }
+
+    private boolean tryDecrement(int counterIndex, int count) {
+        if (count == 0) {
+            return true;
+        }
+
+        int current;
+        do {
+            current = counters.get(counterIndex);
+            if (current < count) {
+                return false;
+            }
+        } while (!counters.compareAndSet(counterIndex, current, current - count));
+        return true;
+    }
+
+    private void giveBack(CoinChange change) {
+        for (int i = 0; i < coinRegistry.size(); i++) {
+            count(i * STRIDE, change.getCount(i));
+        }
+    }
+
+    /**
+     * Adds coins to a counter and to its unsaved change.
+     */
+    private void count(int counterIndex, int count) {
+        counters.addAndGet(counterIndex, count);
+        unsaved.addAndGet(counterIndex, count);
+    }
+
+    /**
+     * Finds a combination of the available coins adding up to the amount. The largest coins
+     * are tried first; if they don't add up, every amount up to the requested one is visited
+     * once per denomination, remembering the denomination that first reached it and how many
+     * of its coins that took. So the search takes O(denominations * amount) steps, and an
+     * amount too large to search is rejected.
+     *
+     * @return the count of each coin or null if no combination adds up to the amount
+     */
+    private int[] findBoundedChange(int amount, int[] available) {
+        int[] counts = new int[available.length];
+        int remainder = amount;
+        long total = 0;
+        for (int i = 0; i < available.length; i++) {
+            int coin = coinRegistry.getDenomination(i);
+            counts[i] = Math.min(available[i], remainder / coin);
+            remainder -= counts[i] * coin;
+            total += (long) available[i] * coin;
+        }
+        if (remainder == 0) {
+            return counts;
+        }
+        if (total < amount || amount % unit != 0) {
+            return null;
+        }
+
+        int units = amount / unit;
+        if (units > MAX_SEARCH_UNITS) {
+            log.warn("Change for amount: {} is too large to be searched", amount);
+            return null;
+        }
+
+        boolean[] reachable = new boolean[units + 1];
+        byte[] lastCoin = new byte[units + 1];
+        int[] coinsUsed = new int[units + 1];
+        reachable[0] = true;
+        for (int i = 0; i < available.length && !reachable[units]; i++) {
+            int coinUnits = coinRegistry.getDenomination(i) / unit;
+            Arrays.fill(coinsUsed, 0);
+            for (int x = coinUnits; x <= units; x++) {
+                int from = x - coinUnits;
+                if (!reachable[x] && reachable[from] && coinsUsed[from] < available[i]) {
+                    reachable[x] = true;
+                    lastCoin[x] = (byte) i;
+                    coinsUsed[x] = coinsUsed[from] + 1;
+                }
+            }
+        }
+        if (!reachable[units]) {
+            return null;
+        }
+
+        Arrays.fill(counts, 0);
+        for (int x = units; x > 0; x -= coinRegistry.getDenomination(lastCoin[x]) / unit) {
+            counts[lastCoin[x]]++;
+        }
+        return counts;
+    }
+
+    private int[] snapshot() {
+        int[] available = new int[coinRegistry.size()];
+        for (int i = 0; i < available.length; i++) {
+            available[i] = counters.get(i * STRIDE);
+        }
+        return available;
+    }
+
+    private int counterIndex(int coin) {
+        int index = coinRegistry.indexOf(coin);
+        if (index == -1) {
+            throw new IllegalArgumentException("Coin is not allowed: " + coin);
+        }
+        return index * STRIDE;
+    }
+
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void runAfterRollback(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        action.run();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.challenge.coin;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Registry of the coins accepted by the machine. It is built once at startup
+ * from the configured allowed coins and keeps the denominations in descending
+ * order, so that every coin has a stable index that can be used for lookups.
+ */
+@Component
+public class CoinRegistry {
+
+    private final int[] denominations;
+
+    public CoinRegistry(@Value("#{'${user.deposit.allowedCoins}'.split(',')}") Set<Integer> allowedCoins) {
+        if (allowedCoins.isEmpty()) {
+            throw new IllegalStateException("At least one allowed coin must be configured");
+        }
+
+        // we order the allowed coins in descending order
+        this.denominations = allowedCoins.stream()
+                .mapToInt(Integer::intValue)
+                .peek(CoinRegistry::checkPositive)
+                .sorted()
+                .toArray();
+        reverse(denominations);
+    }
+
+    /**
+     * Number of allowed denominations.
+     */
+    public int size() {
+        return denominations.length;
+    }
+
+    /**
+     * Gets the denomination found at the given index. Index 0 is the largest coin.
+     */
+    public int getDenomination(int index) {
+        return denominations[index];
+    }
+
+    /**
+     * Gets the index of a coin or -1 if the coin is not allowed.
+     */
+    public int indexOf(int coin) {
+        for (int i = 0; i < denominations.length; i++) {
+            if (denominations[i] == coin) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the coin is one of the allowed denominations.
+     */
+    public boolean isAllowed(int coin) {
+        return indexOf(coin) != -1;
+    }
+
+    /**
+     * Gets a copy of all the denominations in descending order.
+     */
+    public int[] getDenominations() {
+        return denominations.clone();
+    }
+
+    private static void checkPositive(int coin) {
+        if (coin <= 0) {
+            throw new IllegalStateException("Allowed coins must be positive, found: " + coin);
+        }
+    }
+
+    private static void reverse(int[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+}
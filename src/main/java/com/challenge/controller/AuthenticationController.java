@@ -0,0 +1,34 @@
+package com.challenge.controller;
+
+import com.challenge.dto.auth.AuthResponseDto;
+import com.challenge.dto.auth.RefreshTokenDto;
+import com.challenge.service.UserAuthenticationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+
+/**
+ * REST Controller containing endpoints related to the user's sessions.
+ * Logging in is handled by the authentication filter.
+ */
+@RestController
+@RequestMapping(value = "/api/login")
+@RequiredArgsConstructor
+public class AuthenticationController {
+
+    private final UserAuthenticationService userAuthenticationService;
+
+    @PostMapping("/refresh")
+    public ResponseEntity<AuthResponseDto> refreshTokens(@Valid @RequestBody RefreshTokenDto refreshTokenDto,
+                                                         HttpServletRequest request) {
+        AuthResponseDto authResponseDto = userAuthenticationService.refreshSession(refreshTokenDto.getRefreshToken(),
+                request.getRequestURL().toString());
+        return ResponseEntity.ok(authResponseDto);
+    }
+}
@@ -1,11 +1,19 @@
 package com.challenge.controller;
 
+import com.challenge.catalogue.AcceptEncoding;
+import com.challenge.catalogue.CataloguePage;
 import com.challenge.dto.product.DeleteProductDto;
+import com.challenge.dto.product.ProductChangeFeedDto;
 import com.challenge.dto.product.ProductDto;
+import com.challenge.dto.product.StockSlotsDto;
 import com.challenge.dto.product.UpdateProductDto;
+import com.challenge.service.ProductChangeService;
 import com.challenge.service.ProductService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -13,10 +21,12 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.validation.Valid;
-import java.util.List;
+import java.util.UUID;
 
 /**
  * REST Controller containing endpoints related to product management.
@@ -26,11 +36,63 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ProductController {
 
+    /**
+     * Response header holding the cursor of the next catalogue page
+     */
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    @Value("${product.catalogue.defaultPageSize}")
+    private int defaultPageSize;
+
     private final ProductService productService;
+    private final ProductChangeService productChangeService;
 
+    /**
+     * Gets the product catalogue. Without any paging parameter, the whole catalogue is returned,
+     * as it was before the catalogue was paged. With a limit or a cursor, a page is returned and
+     * the next page is requested with the cursor found in the {@value #NEXT_CURSOR_HEADER} header,
+     * which is missing on the last page.
+     * The catalogue version is returned as the ETag, so polls with an unchanged
+     * catalogue get a 304 without any product being read.
+     * <p>
+     * The page is written as the JSON already encoded by the catalogue cache,
+     * gzipped if the client accepts it, so no object is serialized per request.
+     */
     @GetMapping
-    public ResponseEntity<List<ProductDto>> getAllProducts() {
-        return ResponseEntity.ok(productService.getAllProducts());
+    public ResponseEntity<byte[]> getAllProducts(
+            @RequestParam(required = false) UUID after,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request) {
+        boolean gzip = productService.isCatalogueGzipEnabled() && acceptsGzip(request);
+        if (request.checkNotModified(catalogueETag(productService.getCatalogueVersion(), gzip))) {
+            return null;
+        }
+        CataloguePage page = after == null && limit == null
+                ? productService.getWholeCatalogue()
+                : productService.getProductPage(after, limit == null ? defaultPageSize : limit);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(catalogueETag(page.getVersion(), gzip))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+        }
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(page.getGzippedJson());
+        }
+        return response.body(page.getJson());
+    }
+
+    /**
+     * Gets the catalogue changes after the given sequence number, so that
+     * machines only read what changed since their last sync.
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<ProductChangeFeedDto> getProductChanges(
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "${product.changes.maxFeedSize}") int limit) {
+        return ResponseEntity.ok(productChangeService.getChanges(after, limit));
     }
 
     @PostMapping
@@ -45,10 +107,26 @@ public class ProductController {
         return ResponseEntity.ok(updatedProduct);
     }
 
+    @PutMapping("/stock-slots")
+    public ResponseEntity<ProductDto> updateStockSlots(@Valid @RequestBody StockSlotsDto stockSlotsDto) {
+        ProductDto updatedProduct = productService.updateStockSlots(stockSlotsDto);
+        return ResponseEntity.ok(updatedProduct);
+    }
+
     @DeleteMapping
     public ResponseEntity<Void> deleteProduct(@Valid @RequestBody DeleteProductDto productDto) {
         productService.deleteProduct(productDto);
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * The gzipped page gets its own ETag, since strong ETags must differ between encodings.
+     */
+    private String catalogueETag(long version, boolean gzip) {
+        return "\"" + version + (gzip ? "-gzip" : "") + "\"";
+    }
+
+    private boolean acceptsGzip(WebRequest request) {
+        return AcceptEncoding.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
 }
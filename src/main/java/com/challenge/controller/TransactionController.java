@@ -1,22 +1,29 @@
 package com.challenge.controller;
 
+import com.challenge.dto.transaction.BulkDepositTransactionDto;
 import com.challenge.dto.transaction.BuyTransactionDto;
 import com.challenge.dto.transaction.BuyTransactionResponseDto;
+import com.challenge.dto.transaction.CartTransactionDto;
+import com.challenge.dto.transaction.CartTransactionResponseDto;
 import com.challenge.dto.transaction.DepositTransactionDto;
 import com.challenge.dto.user.UserDto;
+import com.challenge.service.IdempotencyService;
 import com.challenge.service.TransactionService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.validation.Valid;
 
 /**
- * REST Controller containing endpoints related to buyer's transactions
+ * REST Controller containing endpoints related to buyer's transactions.
+ * Every endpoint accepts an optional Idempotency-Key header, so that retried
+ * requests are applied only once.
  */
 @RestController
 @RequestMapping(value = "/api/transaction")
@@ -24,21 +31,53 @@ import javax.validation.Valid;
 public class TransactionController {
 
     private final TransactionService transactionService;
+    private final IdempotencyService idempotencyService;
 
     @PostMapping("/product/buy")
-    public ResponseEntity<BuyTransactionResponseDto> performBuyTransaction(@Valid @RequestBody BuyTransactionDto buyTransaction) {
-        BuyTransactionResponseDto responseDto = transactionService.performBuyTransaction(buyTransaction.getProductId(), buyTransaction.getAmount());
+    public ResponseEntity<BuyTransactionResponseDto> performBuyTransaction(
+            @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @Valid @RequestBody BuyTransactionDto buyTransaction) {
+        // a buy runs in transactions of its own, e.g. to retry optimistic purchases, which claim the key
+        BuyTransactionResponseDto responseDto = idempotencyService.executeWithClaim(idempotencyKey, "product/buy",
+                buyTransaction, BuyTransactionResponseDto.class,
+                idempotencyClaim -> transactionService.performBuyTransaction(buyTransaction.getProductId(),
+                        buyTransaction.getAmount(), idempotencyClaim));
+        return ResponseEntity.ok(responseDto);
+    }
+
+    @PostMapping("/cart/buy")
+    public ResponseEntity<CartTransactionResponseDto> performCartTransaction(
+            @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @Valid @RequestBody CartTransactionDto cartTransaction) {
+        CartTransactionResponseDto responseDto = idempotencyService.execute(idempotencyKey, "cart/buy",
+                cartTransaction, CartTransactionResponseDto.class,
+                () -> transactionService.performCartTransaction(cartTransaction.getItems()));
         return ResponseEntity.ok(responseDto);
     }
 
     @PutMapping("/deposit/reset")
-    public ResponseEntity<UserDto> resetDeposit() {
-        return ResponseEntity.ok(transactionService.resetUserDeposit());
+    public ResponseEntity<UserDto> resetDeposit(
+            @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        UserDto user = idempotencyService.execute(idempotencyKey, "deposit/reset",
+                null, UserDto.class, transactionService::resetUserDeposit);
+        return ResponseEntity.ok(user);
     }
 
     @PutMapping("/deposit")
-    public ResponseEntity<UserDto> makeDeposit(@Valid @RequestBody DepositTransactionDto deposit) {
-        UserDto user = transactionService.depositCoin(deposit.getAmount());
+    public ResponseEntity<UserDto> makeDeposit(
+            @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @Valid @RequestBody DepositTransactionDto deposit) {
+        UserDto user = idempotencyService.execute(idempotencyKey, "deposit",
+                deposit, UserDto.class, () -> transactionService.depositCoin(deposit.getAmount(), idempotencyKey != null));
+        return ResponseEntity.ok(user);
+    }
+
+    @PutMapping("/deposit/bulk")
+    public ResponseEntity<UserDto> makeBulkDeposit(
+            @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @Valid @RequestBody BulkDepositTransactionDto deposit) {
+        UserDto user = idempotencyService.execute(idempotencyKey, "deposit/bulk",
+                deposit, UserDto.class, () -> transactionService.depositCoins(deposit.getCoins(), idempotencyKey != null));
         return ResponseEntity.ok(user);
     }
 
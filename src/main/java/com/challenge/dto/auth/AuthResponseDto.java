@@ -7,7 +7,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 /**
- * DTO class for authentication response containing tht JWT.
+ * DTO class for authentication response containing tht JWT and the refresh token.
  */
 @Data
 @NoArgsConstructor
@@ -21,4 +21,7 @@ public class AuthResponseDto {
     @JsonProperty("token")
     private String accessToken;
 
+    @JsonProperty("refreshToken")
+    private String refreshToken;
+
 }
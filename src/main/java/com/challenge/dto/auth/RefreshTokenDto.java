@@ -0,0 +1,20 @@
+package com.challenge.dto.auth;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotEmpty;
+
+/**
+ * DTO class for a request to renew the tokens using a refresh token.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RefreshTokenDto {
+
+    @NotEmpty
+    private String refreshToken;
+
+}
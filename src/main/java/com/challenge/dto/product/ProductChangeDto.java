@@ -0,0 +1,30 @@
+package com.challenge.dto.product;
+
+import com.challenge.entity.ProductChangeType;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * DTO class representing a change of the product catalogue. The product is the
+ * product's current state, it's missing if the product was deleted.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductChangeDto {
+
+    private long seq;
+
+    private ProductChangeType type;
+
+    private UUID productId;
+
+    private ProductDto product;
+}
@@ -0,0 +1,25 @@
+package com.challenge.dto.product;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO class representing the catalogue changes after a sequence number. The next
+ * changes are read after lastSeq. If resyncRequired is set, deletions were compacted
+ * since the requested sequence number: the whole catalogue must be read again
+ * and the changes read after lastSeq.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductChangeFeedDto {
+
+    private List<ProductChangeDto> changes;
+
+    private long lastSeq;
+
+    private boolean resyncRequired;
+}
@@ -0,0 +1,23 @@
+package com.challenge.dto.product;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * DTO class representing a page of the product catalogue. The next cursor
+ * is the id to continue after, or null if this is the last page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPageDto {
+
+    private List<ProductDto> products;
+
+    private UUID nextCursor;
+
+}
@@ -0,0 +1,27 @@
+package com.challenge.dto.product;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+import java.util.UUID;
+
+/**
+ * DTO class for splitting a product's stock across stock slots.
+ * 0 slots keeps the whole stock on the product.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockSlotsDto {
+
+    @NotNull
+    private UUID id;
+
+    @PositiveOrZero
+    @Max(64)
+    private int slots;
+}
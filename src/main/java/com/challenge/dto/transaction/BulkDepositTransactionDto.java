@@ -0,0 +1,27 @@
+package com.challenge.dto.transaction;
+
+import com.challenge.validation.constraints.AllowedCoinCounts;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.util.Map;
+
+/**
+ * DTO class representing a deposit of several coins at once,
+ * as the count of inserted coins of each denomination
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkDepositTransactionDto {
+
+    @NotEmpty
+    @AllowedCoinCounts
+    private Map<Integer, @NotNull @Positive @Max(1000) Integer> coins;
+
+}
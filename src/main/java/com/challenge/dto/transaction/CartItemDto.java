@@ -0,0 +1,25 @@
+package com.challenge.dto.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.util.UUID;
+
+/**
+ * DTO class representing a single product line of a cart
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartItemDto {
+
+    @NotNull
+    private UUID productId;
+
+    @Positive
+    private int amount;
+
+}
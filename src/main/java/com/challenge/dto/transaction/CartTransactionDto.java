@@ -0,0 +1,23 @@
+package com.challenge.dto.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * DTO class representing a request to buy several products at once
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartTransactionDto {
+
+    @Valid
+    @NotEmpty
+    private List<CartItemDto> items;
+
+}
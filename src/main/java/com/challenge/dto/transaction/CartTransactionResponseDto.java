@@ -0,0 +1,22 @@
+package com.challenge.dto.transaction;
+
+import com.challenge.dto.product.ProductDto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO class representing the response from a cart buy transaction
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartTransactionResponseDto {
+
+    private int totalSpent;
+    private List<ProductDto> boughtProducts;
+    private List<Integer> change;
+
+}
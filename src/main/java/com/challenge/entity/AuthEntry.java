@@ -42,12 +42,18 @@ public class AuthEntry {
     @Column(name = "USERNAME")
     private String username;
 
-    @Column(name = "TOKEN")
-    private String token;
+    /**
+     * The jti claim of the token, the token itself is not stored
+     */
+    @Column(name = "TOKEN_ID")
+    private UUID tokenId;
 
     @Column(name = "EXPIRATION_DATE")
     private Timestamp expirationDate;
 
     @Column(name = "ACTIVE")
     private boolean active;
+
+    @Column(name = "TOKEN_EPOCH")
+    private int tokenEpoch;
 }
@@ -0,0 +1,35 @@
+package com.challenge.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Entity class representing the number of coins of a denomination found in the machine
+ */
+@Entity
+@Table(name = "T_COIN_INVENTORY")
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CoinCount {
+
+    @Id
+    @Column(
+            name = "COIN",
+            updatable = false
+    )
+    private Integer coin;
+
+    @Column(name = "COIN_COUNT")
+    private int count;
+}
@@ -0,0 +1,53 @@
+package com.challenge.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Entity class representing a request made with an idempotency key. The response
+ * is stored in the transaction claiming the key.
+ */
+@Entity
+@Table(name = "T_IDEMPOTENCY_KEY")
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyRecord {
+
+    @Id
+    @Column(
+            name = "ID",
+            updatable = false
+    )
+    private UUID id;
+
+    @Column(name = "USERNAME")
+    private String username;
+
+    @Column(name = "IDEMPOTENCY_KEY")
+    private String idempotencyKey;
+
+    @Column(name = "OPERATION")
+    private String operation;
+
+    @Column(name = "REQUEST_DIGEST")
+    private String requestDigest;
+
+    @Column(name = "RESPONSE_BODY")
+    private String responseBody;
+
+    @Column(name = "CREATED_AT")
+    private Timestamp createdAt;
+}
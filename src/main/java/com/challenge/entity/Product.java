@@ -5,15 +5,18 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.Formula;
 import org.hibernate.annotations.GenericGenerator;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import java.util.UUID;
 
 /**
@@ -49,10 +52,38 @@ public class Product {
     @Column(name = "COST")
     private int cost;
 
-    @ManyToOne
+    /**
+     * Number of stock slots the stock is split across. If greater than 0,
+     * the stock is held by the slots and {@link #amountAvailable} is 0.
+     */
+    @Column(name = "STOCK_SLOTS")
+    private int stockSlots;
+
+    /**
+     * Sum of the stock held by the product's stock slots
+     */
+    @Formula("(SELECT COALESCE(SUM(s.amount), 0) FROM t_product_stock_slot s WHERE s.product_id = id)")
+    private int slotStock;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "SELLER_ID")
     private User seller;
 
+    @Version
+    @Column(name = "VERSION")
+    private long version;
+
+    public boolean isStriped() {
+        return stockSlots > 0;
+    }
+
+    /**
+     * Gets the whole stock of the product, including the stock held by its slots.
+     */
+    public int getTotalAmountAvailable() {
+        return amountAvailable + slotStock;
+    }
+
     public int subtractFromAmountAvailable(int amount) {
         amountAvailable = amountAvailable - amount;
         return amountAvailable;
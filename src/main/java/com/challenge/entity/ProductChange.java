@@ -0,0 +1,53 @@
+package com.challenge.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Entity class representing an entry of the product change log. The sequence
+ * number is null until the entry is sequenced after its transaction commits.
+ */
+@Entity
+@Table(name = "T_PRODUCT_CHANGE")
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(
+            name = "ID",
+            updatable = false
+    )
+    private Long id;
+
+    @Column(name = "SEQ")
+    private Long seq;
+
+    @Column(name = "PRODUCT_ID")
+    private UUID productId;
+
+    @Column(name = "CHANGE_TYPE")
+    @Enumerated(value = EnumType.STRING)
+    private ProductChangeType changeType;
+
+    @Column(name = "CREATED_AT")
+    private Timestamp createdAt;
+}
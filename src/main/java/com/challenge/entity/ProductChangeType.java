@@ -0,0 +1,11 @@
+package com.challenge.entity;
+
+/**
+ * Types of the product changes recorded in the product change log
+ */
+public enum ProductChangeType {
+    CREATED,
+    UPDATED,
+    STOCK_CHANGED,
+    DELETED
+}
@@ -0,0 +1,47 @@
+package com.challenge.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Entity class representing a seller's earning which was not yet
+ * added to the seller's deposit
+ */
+@Entity
+@Table(name = "T_SELLER_LEDGER")
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SellerLedgerEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(
+            name = "ID",
+            updatable = false
+    )
+    private Long id;
+
+    @Column(name = "SELLER_ID")
+    private UUID sellerId;
+
+    @Column(name = "AMOUNT")
+    private int amount;
+
+    @Column(name = "CREATED_AT")
+    private Timestamp createdAt;
+}
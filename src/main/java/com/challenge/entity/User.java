@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.Formula;
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.annotations.OnDelete;
 import org.hibernate.annotations.OnDeleteAction;
@@ -21,6 +22,7 @@ import javax.persistence.JoinTable;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -57,7 +59,13 @@ public class User implements UserDetails {
     @Column(name = "DEPOSIT")
     private int deposit;
 
-    @ManyToOne
+    /**
+     * Sum of the user's seller ledger entries which were not yet added to the deposit
+     */
+    @Formula("(SELECT COALESCE(SUM(l.amount), 0) FROM t_seller_ledger l WHERE l.seller_id = id)")
+    private int unfoldedCredit;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinTable(
             name = "T_USER_ROLE",
             joinColumns = @JoinColumn(name = "USER_ID"),
@@ -68,12 +76,29 @@ public class User implements UserDetails {
 
     @OneToMany(
             mappedBy = "seller",
-            fetch = FetchType.EAGER,
             orphanRemoval = true
     )
     @Builder.Default
     private Set<Product> products = new HashSet<>();
 
+    @Version
+    @Column(name = "VERSION")
+    private long version;
+
+    /**
+     * Incremented to revoke all the user's tokens. It is only written by
+     * {@link com.challenge.repository.UserRepository#incrementTokenEpoch(UUID)}.
+     */
+    @Column(name = "TOKEN_EPOCH", insertable = false, updatable = false)
+    private int tokenEpoch;
+
+    /**
+     * Gets the user's deposit, including the earnings not yet folded from the seller ledger.
+     */
+    public int getBalance() {
+        return deposit + unfoldedCredit;
+    }
+
     public int addToDepositAccount(int amount) {
         deposit = deposit + amount;
         return deposit;
@@ -0,0 +1,306 @@
+package com.challenge.escrow;
+
+import com.challenge.repository.UserRepository;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the coins inserted by the users in memory instead of writing every coin to the
+ * database. A user's escrowed amount is added to the deposit in a single update when the
+ * user buys something, resets the deposit or stops inserting coins for a while.
+ * <p>
+ * Every coin is written to the {@link EscrowJournal} with a sequence number before it's
+ * acknowledged. The users' rows remember the last sequence number added to the deposit,
+ * so after a crash the journal is replayed at startup and every coin is added exactly once.
+ * For that, a user's coins are added in the order of their sequence numbers: a flush locks
+ * the user's row first, and takes over the amount of an earlier flush that was rolled back.
+ * <p>
+ * The journal is checkpointed periodically: it's rewritten with one record per amount not
+ * added to a deposit yet, so it stays small however busy the machine is.
+ */
+@Slf4j
+@Component
+public class DepositEscrow {
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long flushTimeoutNanos;
+    private final Path journalPath;
+
+    private final Map<UUID, Escrow> escrows = new ConcurrentHashMap<>();
+
+    /**
+     * Amounts taken by flushes whose transaction hasn't completed yet. It's only
+     * changed while holding the user's entry of the escrows.
+     */
+    private final Map<UUID, Escrow> flushing = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastSeq = new AtomicLong();
+
+    /**
+     * Held shared while the escrows are changed, and exclusively while the journal is
+     * checkpointed, so that the checkpoint sees every amount either escrowed or flushing.
+     */
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    private EscrowJournal journal;
+
+    public DepositEscrow(UserRepository userRepository,
+                         TransactionTemplate transactionTemplate,
+                         @Value("${deposit.escrow.enabled}") boolean enabled,
+                         @Value("${deposit.escrow.flushTimeoutMillis}") long flushTimeoutMillis,
+                         @Value("${deposit.escrow.journalPath}") String journalPath) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.flushTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(flushTimeoutMillis);
+        this.journalPath = Path.of(journalPath);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the coins left in the journal by a previous run to the users' deposits.
+     */
+    @PostConstruct
+    public void recover() {
+        if (!enabled) {
+            return;
+        }
+
+        journal = new EscrowJournal(journalPath);
+        List<EscrowRecord> records = journal.readAll();
+        long maxSeq = userRepository.findMaxEscrowSeq();
+
+        Map<UUID, List<EscrowRecord>> recordsByUser = new HashMap<>();
+        for (EscrowRecord escrowRecord : records) {
+            recordsByUser.computeIfAbsent(escrowRecord.getUserId(), id -> new ArrayList<>()).add(escrowRecord);
+            maxSeq = Math.max(maxSeq, escrowRecord.getSeq());
+        }
+        recordsByUser.forEach((userId, userRecords) -> transactionTemplate.executeWithoutResult(status -> recover(userId, userRecords)));
+
+        lastSeq.set(maxSeq);
+        journal.truncate();
+        log.info("Escrow journal recovered, {} records replayed", records.size());
+    }
+
+    /**
+     * Escrows a coin for the user.
+     *
+     * @return the user's escrowed amount, including the coin
+     */
+    public int deposit(UUID userId, int amount) {
+        // the journal is written while holding the user's entry, so the
+        // user's sequence numbers reach the map in ascending order
+        long[] position = new long[1];
+        Escrow escrow;
+        checkpointLock.readLock().lock();
+        try {
+            escrow = escrows.compute(userId, (id, current) -> {
+                long seq = lastSeq.incrementAndGet();
+                position[0] = journal.append(new EscrowRecord(seq, userId, amount));
+                return current == null
+                        ? new Escrow(amount, seq, System.nanoTime())
+                        : new Escrow(current.amount + amount, seq, System.nanoTime());
+            });
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        // forced outside the entry, so the coins of other users share the force
+        journal.force(position[0]);
+        return escrow.amount;
+    }
+
+    /**
+     * Gets the amount escrowed for the user.
+     */
+    public int getEscrowed(UUID userId) {
+        Escrow escrow = escrows.get(userId);
+        return escrow == null ? 0 : escrow.amount;
+    }
+
+    /**
+     * Adds the user's escrowed amount to the deposit. It must be called inside a transaction;
+     * if the transaction is rolled back, the amount is escrowed again.
+     */
+    public void flush(UUID userId) {
+        if (!enabled || (!escrows.containsKey(userId) && !flushing.containsKey(userId))) {
+            return;
+        }
+
+        // waits for the flush of another transaction to complete
+        Long appliedSeq = userRepository.lockEscrowSeqById(userId).orElse(null);
+
+        Escrow escrow = take(userId, appliedSeq);
+        if (escrow == null) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                checkpointLock.readLock().lock();
+                try {
+                    escrows.compute(userId, (id, current) -> {
+                        // a later flush may have taken the amount over already
+                        if (!flushing.remove(userId, escrow) || status == STATUS_COMMITTED) {
+                            return current;
+                        }
+                        return current == null ? escrow : current.combine(escrow);
+                    });
+                } finally {
+                    checkpointLock.readLock().unlock();
+                }
+            }
+        });
+        if (userRepository.addEscrowedDeposit(userId, escrow.amount, escrow.seq) == 0) {
+            throw new IllegalStateException("Escrowed coins of user: " + userId + " up to: " + escrow.seq
+                    + " are behind the coins already added");
+        }
+    }
+
+    /**
+     * Takes the user's escrowed amount, together with the amount of an earlier flush whose
+     * transaction was rolled back but hasn't completed on this side yet. The earlier flush
+     * was committed if the user's row has its sequence number.
+     *
+     * @param appliedSeq sequence number of the user's row, locked by the caller
+     * @return the amount to add to the deposit, or null if there's none
+     */
+    private Escrow take(UUID userId, Long appliedSeq) {
+        Escrow[] taken = new Escrow[1];
+        checkpointLock.readLock().lock();
+        try {
+            escrows.compute(userId, (id, current) -> {
+                if (appliedSeq == null) {
+                    if (current != null) {
+                        log.warn("Escrowed coins of deleted user: {} were dropped", userId);
+                    }
+                    flushing.remove(userId);
+                    return null;
+                }
+
+                Escrow escrow = current;
+                Escrow previous = flushing.remove(userId);
+                if (previous != null && previous.seq > appliedSeq) {
+                    escrow = escrow == null ? previous : escrow.combine(previous);
+                }
+                if (escrow != null) {
+                    flushing.put(userId, escrow);
+                }
+                taken[0] = escrow;
+                return null;
+            });
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        return taken[0];
+    }
+
+    /**
+     * Scheduled job to flush the escrows of the users who stopped inserting coins.
+     * The journal is checkpointed afterwards.
+     */
+    @Scheduled(fixedDelayString = "${deposit.escrow.flushTimeoutMillis}")
+    public void flushIdle() {
+        if (!enabled) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        escrows.forEach((userId, escrow) -> {
+            if (now - escrow.lastDepositAt >= flushTimeoutNanos) {
+                transactionTemplate.executeWithoutResult(status -> flush(userId));
+            }
+        });
+
+        checkpoint();
+    }
+
+    /**
+     * Rewrites the journal with a record for every amount not added to a deposit yet: the
+     * escrowed amounts and the ones of the flushes not completed yet. The records of a user
+     * don't overlap, so the recovery adds the ones after the user's sequence number as before.
+     * No amount is escrowed or flushed meanwhile, so the checkpoint can't miss any of them.
+     */
+    void checkpoint() {
+        checkpointLock.writeLock().lock();
+        try {
+            List<EscrowRecord> snapshot = new ArrayList<>(escrows.size() + flushing.size());
+            escrows.forEach((userId, escrow) -> snapshot.add(new EscrowRecord(escrow.seq, userId, escrow.amount)));
+            flushing.forEach((userId, escrow) -> snapshot.add(new EscrowRecord(escrow.seq, userId, escrow.amount)));
+            journal.rewrite(snapshot);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void flushAll() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        escrows.keySet().forEach(userId -> transactionTemplate.executeWithoutResult(status -> flush(userId)));
+        journal.close();
+    }
+
+    private void recover(UUID userId, List<EscrowRecord> userRecords) {
+        Long appliedSeq = userRepository.findEscrowSeqById(userId).orElse(null);
+        if (appliedSeq == null) {
+            log.warn("Escrowed coins of deleted user: {} were dropped", userId);
+            return;
+        }
+
+        int amount = 0;
+        long seq = appliedSeq;
+        for (EscrowRecord escrowRecord : userRecords) {
+            if (escrowRecord.getSeq() > appliedSeq) {
+                amount += escrowRecord.getAmount();
+                seq = Math.max(seq, escrowRecord.getSeq());
+            }
+        }
+        if (amount > 0) {
+            userRepository.addEscrowedDeposit(userId, amount, seq);
+        }
+    }
+
+    /**
+     * Amount escrowed for a user and the sequence number of the user's last coin
+     */
+    @AllArgsConstructor
+    private static class Escrow {
+
+        private final int amount;
+        private final long seq;
+        private final long lastDepositAt;
+
+        Escrow combine(Escrow other) {
+            return new Escrow(amount + other.amount, Math.max(seq, other.seq), Math.max(lastDepositAt, other.lastDepositAt));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.challenge.escrow;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only file recording every escrowed coin before it's acknowledged. The records
+ * are forced to disk in groups: while one thread forces the file, the records appended
+ * by the others are written and then forced together by the next one. That way a coin
+ * is on disk before it's acknowledged, without a force per coin. A record cut short by
+ * a crash is ignored when the journal is read.
+ * <p>
+ * The journal is kept small by rewriting it with only the records not applied yet.
+ */
+class EscrowJournal implements AutoCloseable {
+
+    /**
+     * Sequence number, user id and amount
+     */
+    private static final int RECORD_SIZE = Long.BYTES + 2 * Long.BYTES + Integer.BYTES;
+
+    private final Path path;
+    private FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final Object forceLock = new Object();
+
+    /**
+     * Number of records appended since the journal was opened
+     */
+    private long appended;
+
+    /**
+     * Number of the first records known to be on disk
+     */
+    private volatile long forced;
+
+    EscrowJournal(Path path) {
+        this.path = path;
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            this.channel = open(path);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to open escrow journal: " + path, ex);
+        }
+    }
+
+    /**
+     * Appends a record without forcing it to disk.
+     *
+     * @return the position of the record, to be passed to {@link #force(long)}
+     */
+    synchronized long append(EscrowRecord escrowRecord) {
+        try {
+            write(channel, escrowRecord);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to write escrow journal", ex);
+        }
+        return ++appended;
+    }
+
+    /**
+     * Waits until the record at the given position is on disk. The file is forced
+     * by one thread at a time, for all the records appended so far.
+     */
+    void force(long position) {
+        if (forced >= position) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (forced >= position) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                target = appended;
+            }
+            try {
+                channel.force(false);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to force escrow journal", ex);
+            }
+            forced = target;
+        }
+    }
+
+    /**
+     * Reads all the complete records, in the order they were appended.
+     */
+    synchronized List<EscrowRecord> readAll() {
+        try {
+            long completeSize = channel.size() - channel.size() % RECORD_SIZE;
+            ByteBuffer content = ByteBuffer.allocate((int) completeSize);
+            while (content.hasRemaining()) {
+                if (channel.read(content, content.position()) < 0) {
+                    break;
+                }
+            }
+            content.flip();
+
+            List<EscrowRecord> records = new ArrayList<>(content.remaining() / RECORD_SIZE);
+            while (content.remaining() >= RECORD_SIZE) {
+                records.add(new EscrowRecord(content.getLong(),
+                        new UUID(content.getLong(), content.getLong()), content.getInt()));
+            }
+            return records;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read escrow journal", ex);
+        }
+    }
+
+    /**
+     * Replaces all the records with the given ones, which must stand for every record not
+     * applied to the database yet. The new journal is forced to a temporary file before it's
+     * moved over the old one, so a crash leaves either of them, and both recover the same coins.
+     * The records appended before count as forced afterwards.
+     */
+    void rewrite(List<EscrowRecord> records) {
+        synchronized (forceLock) {
+            synchronized (this) {
+                Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+                try {
+                    try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                        for (EscrowRecord escrowRecord : records) {
+                            write(tempChannel, escrowRecord);
+                        }
+                        tempChannel.force(false);
+                    }
+                    Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+                    channel.close();
+                    channel = open(path);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Unable to rewrite escrow journal", ex);
+                }
+                forced = appended;
+            }
+        }
+    }
+
+    /**
+     * Removes all the records. Must only be called once they were all applied to the database.
+     */
+    synchronized void truncate() {
+        try {
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            forced = appended;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to truncate escrow journal", ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Opens the journal for appending after its last complete record.
+     */
+    private static FileChannel open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size() - channel.size() % RECORD_SIZE);
+        return channel;
+    }
+
+    private void write(FileChannel target, EscrowRecord escrowRecord) throws IOException {
+        buffer.clear();
+        buffer.putLong(escrowRecord.getSeq())
+                .putLong(escrowRecord.getUserId().getMostSignificantBits())
+                .putLong(escrowRecord.getUserId().getLeastSignificantBits())
+                .putInt(escrowRecord.getAmount())
+                .flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.challenge.escrow;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * A coin escrowed for a user, as written to the {@link EscrowJournal}
+ */
+@Getter
+@AllArgsConstructor
+class EscrowRecord {
+
+    private final long seq;
+    private final UUID userId;
+    private final int amount;
+}
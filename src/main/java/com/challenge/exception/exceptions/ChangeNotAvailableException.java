@@ -0,0 +1,12 @@
+package com.challenge.exception.exceptions;
+
+/**
+ * Exception class for situations where the machine doesn't have
+ * the coins needed to pay out an amount
+ */
+public class ChangeNotAvailableException extends RuntimeException {
+
+    public ChangeNotAvailableException(String message) {
+        super(message);
+    }
+}
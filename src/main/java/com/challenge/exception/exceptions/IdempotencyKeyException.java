@@ -0,0 +1,12 @@
+package com.challenge.exception.exceptions;
+
+/**
+ * Exception class for requests whose idempotency key is
+ * used by a request that is still being processed
+ */
+public class IdempotencyKeyException extends RuntimeException {
+
+    public IdempotencyKeyException(String message) {
+        super(message);
+    }
+}
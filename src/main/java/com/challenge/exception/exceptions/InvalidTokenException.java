@@ -0,0 +1,12 @@
+package com.challenge.exception.exceptions;
+
+/**
+ * Exception class for refresh tokens which are not valid
+ * or whose session was already ended
+ */
+public class InvalidTokenException extends RuntimeException {
+
+    public InvalidTokenException(String message) {
+        super(message);
+    }
+}
@@ -2,7 +2,10 @@ package com.challenge.handler;
 
 import com.challenge.dto.error.ApiErrorDto;
 import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.exception.exceptions.ChangeNotAvailableException;
+import com.challenge.exception.exceptions.IdempotencyKeyException;
 import com.challenge.exception.exceptions.InvalidInputException;
+import com.challenge.exception.exceptions.InvalidTokenException;
 import com.challenge.exception.exceptions.PasswordMatchException;
 import com.challenge.exception.exceptions.ResourceNotFoundException;
 import com.challenge.exception.exceptions.UsernameAlreadyExistsException;
@@ -32,7 +35,14 @@ public class ApiExceptionHandler {
         return buildResponse(request, status, ex.getMessage());
     }
 
-    @ExceptionHandler(value = {BuyTransactionException.class, UsernameAlreadyExistsException.class, PasswordMatchException.class})
+    @ExceptionHandler(value = InvalidTokenException.class)
+    public ResponseEntity<ApiErrorDto> invalidTokenExceptionHandler(InvalidTokenException ex, WebRequest request) {
+        HttpStatus status = HttpStatus.UNAUTHORIZED;
+        return buildResponse(request, status, ex.getMessage());
+    }
+
+    @ExceptionHandler(value = {BuyTransactionException.class, ChangeNotAvailableException.class,
+            IdempotencyKeyException.class, UsernameAlreadyExistsException.class, PasswordMatchException.class})
     public ResponseEntity<ApiErrorDto> conflictExceptionHandler(RuntimeException ex, WebRequest request) {
         HttpStatus status = HttpStatus.CONFLICT;
         return buildResponse(request, status, ex.getMessage());
@@ -1,12 +1,18 @@
 package com.challenge.mapper;
 
+import com.challenge.dto.product.ProductChangeDto;
 import com.challenge.dto.product.ProductDto;
+import com.challenge.dto.user.UserDto;
 import com.challenge.entity.Product;
+import com.challenge.entity.ProductChangeType;
+import com.challenge.repository.projection.ProductChangeView;
+import com.challenge.repository.projection.ProductStockView;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.Mappings;
 
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Mapper for {@link ProductDto} and {@link Product}
@@ -15,6 +21,7 @@ import java.util.List;
 public interface ProductMapper {
 
     @Mappings({
+            @Mapping(target = "amountAvailable", source = "totalAmountAvailable"),
             @Mapping(target = "seller.deposit", ignore = true),
             @Mapping(target = "seller.role", ignore = true),
             @Mapping(target = "seller.products", ignore = true)
@@ -22,9 +29,16 @@ public interface ProductMapper {
     ProductDto entityToDto(Product product);
 
     @Mappings({
+            @Mapping(target = "version", ignore = true),
+            @Mapping(target = "stockSlots", ignore = true),
+            @Mapping(target = "slotStock", ignore = true),
+            @Mapping(target = "seller.password", ignore = true),
             @Mapping(target = "seller.deposit", ignore = true),
+            @Mapping(target = "seller.unfoldedCredit", ignore = true),
             @Mapping(target = "seller.role", ignore = true),
-            @Mapping(target = "seller.products", ignore = true)
+            @Mapping(target = "seller.products", ignore = true),
+            @Mapping(target = "seller.version", ignore = true),
+            @Mapping(target = "seller.tokenEpoch", ignore = true)
     })
     Product dtoToEntity(ProductDto productDto);
 
@@ -34,4 +48,43 @@ public interface ProductMapper {
             @Mapping(target = "seller.products", ignore = true)
     })
     List<ProductDto> allEntitiesToDtos(List<Product> products);
+
+    default ProductDto stockViewToDto(ProductStockView product) {
+        UserDto seller = UserDto.builder()
+                .id(UUID.fromString(product.getSellerId()))
+                .username(product.getSellerUsername())
+                .build();
+
+        return ProductDto.builder()
+                .id(UUID.fromString(product.getId()))
+                .productName(product.getProductName())
+                .amountAvailable(product.getAmountAvailable())
+                .cost(product.getCost())
+                .seller(seller)
+                .build();
+    }
+
+    default ProductChangeDto changeViewToDto(ProductChangeView change) {
+        ProductChangeDto.ProductChangeDtoBuilder changeDto = ProductChangeDto.builder()
+                .seq(change.getSeq())
+                .productId(UUID.fromString(change.getProductId()));
+
+        // the product may have been deleted after the change
+        if (change.getProductName() == null) {
+            return changeDto.type(ProductChangeType.DELETED).build();
+        }
+
+        UserDto seller = UserDto.builder()
+                .id(UUID.fromString(change.getSellerId()))
+                .username(change.getSellerUsername())
+                .build();
+        ProductDto product = ProductDto.builder()
+                .id(UUID.fromString(change.getProductId()))
+                .productName(change.getProductName())
+                .amountAvailable(change.getAmountAvailable())
+                .cost(change.getCost())
+                .seller(seller)
+                .build();
+        return changeDto.type(change.getChangeType()).product(product).build();
+    }
 }
@@ -4,6 +4,7 @@ import com.challenge.dto.product.ProductDto;
 import com.challenge.dto.user.UserDto;
 import com.challenge.entity.Product;
 import com.challenge.entity.User;
+import com.challenge.repository.projection.UserDepositView;
 import org.mapstruct.InjectionStrategy;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
@@ -19,10 +20,20 @@ import java.util.List;
 )
 public interface UserMapper {
 
+    @Mapping(target = "deposit", source = "balance")
     UserDto entityToDto(User user);
 
     List<UserDto> allEntitiesToDtos(List<User> users);
 
+    default UserDto depositViewToDto(UserDepositView user, int deposit) {
+        return UserDto.builder()
+                .id(user.getId())
+                .username(user.getUsername())
+                .deposit(deposit)
+                .role(user.getRoleType().name())
+                .build();
+    }
+
     /**
      * We need this method so that we are able to ignore
      * the nested seller field inside the user's products
@@ -6,8 +6,6 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -16,15 +14,46 @@ import java.util.UUID;
 @Repository
 public interface AuthEntryRepository extends JpaRepository<AuthEntry, UUID> {
 
-    @Query("SELECT entry FROM AuthEntry entry " +
+    /**
+     * Checks if the user has active tokens. It only reads the partial index on the active entries.
+     */
+    @Query("SELECT CASE WHEN COUNT(entry) > 0 THEN TRUE ELSE FALSE END FROM AuthEntry entry " +
             "WHERE entry.username = :username " +
             "AND entry.expirationDate > NOW() " +
-            "AND entry.active = TRUE")
-    List<AuthEntry> findAllActiveAndNotExpired(String username);
+            "AND entry.active = TRUE " +
+            "AND entry.tokenEpoch = (SELECT u.tokenEpoch FROM User u WHERE u.username = entry.username)")
+    boolean existsActiveAndNotExpired(String username);
 
+    /**
+     * Ends the session of a refresh token, only if the session is still active and was started
+     * after the user's tokens were last revoked. Returns 0 if the session can't be used.
+     */
     @Modifying
-    @Query("DELETE FROM AuthEntry entry WHERE entry.expirationDate < NOW()")
-    void removeAllExpired();
+    @Query("UPDATE AuthEntry entry SET entry.active = FALSE " +
+            "WHERE entry.tokenId = :tokenId " +
+            "AND entry.expirationDate > NOW() " +
+            "AND entry.active = TRUE " +
+            "AND entry.tokenEpoch = (SELECT u.tokenEpoch FROM User u WHERE u.id = :userId)")
+    int deactivateActiveSession(UUID tokenId, UUID userId);
+
+    /**
+     * Deletes a batch of expired entries, oldest first, and returns the number of deleted
+     * entries. Entries locked by a concurrent deletion are skipped.
+     */
+    @Query(value = "WITH reaped AS (" +
+            "DELETE FROM t_authentication WHERE id IN (" +
+            "SELECT id FROM t_authentication WHERE expiration_date < NOW() " +
+            "ORDER BY expiration_date LIMIT :batchSize FOR UPDATE SKIP LOCKED) " +
+            "RETURNING id) " +
+            "SELECT COUNT(*) FROM reaped",
+            nativeQuery = true)
+    int removeExpired(int batchSize);
 
-    Optional<AuthEntry> findByToken(String token);
+    /**
+     * Estimated number of rows of the table, as last counted by the database's statistics.
+     */
+    @Query(value = "SELECT CAST(GREATEST(reltuples, 0) AS BIGINT) FROM pg_class " +
+            "WHERE oid = CAST('t_authentication' AS regclass)",
+            nativeQuery = true)
+    long estimateCount();
 }
@@ -0,0 +1,32 @@
+package com.challenge.repository;
+
+import com.challenge.entity.CoinCount;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository for {@link CoinCount}
+ */
+@Repository
+public interface CoinCountRepository extends JpaRepository<CoinCount, Integer> {
+
+    /**
+     * Inserts the count of a coin, unless the coin is already counted.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO t_coin_inventory (coin, coin_count) VALUES (:coin, :count) " +
+            "ON CONFLICT (coin) DO NOTHING",
+            nativeQuery = true)
+    int insertIfAbsent(int coin, int count);
+
+    /**
+     * Adds the given number of coins, which may be negative, to the count of a coin.
+     * Returns the number of updated counts.
+     */
+    @Modifying
+    @Query(value = "UPDATE t_coin_inventory SET coin_count = coin_count + :delta WHERE coin = :coin",
+            nativeQuery = true)
+    int addToCount(int coin, int delta);
+}
@@ -0,0 +1,51 @@
+package com.challenge.repository;
+
+import com.challenge.entity.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Repository for {@link IdempotencyRecord}
+ */
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, UUID> {
+
+    Optional<IdempotencyRecord> findByUsernameAndIdempotencyKey(String username, String idempotencyKey);
+
+    /**
+     * Inserts a record for the key, unless the user already used it. If the key is being
+     * claimed by another transaction, it waits for that transaction to complete.
+     * Returns 1 if the key was claimed by this call.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO t_idempotency_key (id, username, idempotency_key, operation, request_digest) " +
+            "VALUES (:id, :username, :idempotencyKey, :operation, :requestDigest) " +
+            "ON CONFLICT (username, idempotency_key) DO NOTHING",
+            nativeQuery = true)
+    int claim(UUID id, String username, String idempotencyKey, String operation, String requestDigest);
+
+    @Modifying
+    @Query("UPDATE IdempotencyRecord record SET record.responseBody = :responseBody " +
+            "WHERE record.username = :username AND record.idempotencyKey = :idempotencyKey")
+    int complete(String username, String idempotencyKey, String responseBody);
+
+    /**
+     * Removes the record of a request that was not applied, in the transaction that claimed
+     * the key, so that the request can be retried.
+     */
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord record " +
+            "WHERE record.username = :username AND record.idempotencyKey = :idempotencyKey " +
+            "AND record.responseBody IS NULL")
+    int release(String username, String idempotencyKey);
+
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord record WHERE record.createdAt < :createdBefore")
+    int removeAllCreatedBefore(Timestamp createdBefore);
+}
@@ -0,0 +1,104 @@
+package com.challenge.repository;
+
+import com.challenge.entity.ProductChange;
+import com.challenge.repository.projection.ProductChangeView;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Repository for {@link ProductChange}
+ */
+@Repository
+public interface ProductChangeRepository extends JpaRepository<ProductChange, Long> {
+
+    @Modifying
+    @Query(value = "INSERT INTO t_product_change (product_id, change_type) VALUES (:productId, :changeType)",
+            nativeQuery = true)
+    int appendChange(UUID productId, String changeType);
+
+    /**
+     * Appends the same change for all the products of a seller.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO t_product_change (product_id, change_type) " +
+            "SELECT id, :changeType FROM t_product WHERE seller_id = :sellerId",
+            nativeQuery = true)
+    int appendChangeForSeller(UUID sellerId, String changeType);
+
+    /**
+     * Takes the sequencer's lock until the end of the transaction, so that sequence
+     * numbers are only assigned by one transaction at a time. Returns false if
+     * another transaction holds the lock.
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:lockKey)", nativeQuery = true)
+    boolean tryLockSequencer(long lockKey);
+
+    /**
+     * Assigns sequence numbers to the oldest committed entries which don't have one yet.
+     * Returns the number of sequenced entries.
+     */
+    @Modifying
+    @Query(value = "UPDATE t_product_change SET seq = nextval('product_change_seq') WHERE id IN (" +
+            "SELECT id FROM t_product_change WHERE seq IS NULL ORDER BY id LIMIT :batchSize)",
+            nativeQuery = true)
+    int sequenceChanges(int batchSize);
+
+    /**
+     * Finds the sequenced changes after the given sequence number, with the products' current state.
+     */
+    @Query(value = "SELECT c.seq AS \"seq\", c.change_type AS \"changeType\", " +
+            "CAST(c.product_id AS VARCHAR) AS \"productId\", p.product_name AS \"productName\", " +
+            "p.amount_available + COALESCE((SELECT SUM(s.amount) FROM t_product_stock_slot s WHERE s.product_id = p.id), 0) " +
+            "AS \"amountAvailable\", p.cost AS \"cost\", " +
+            "CAST(u.id AS VARCHAR) AS \"sellerId\", u.username AS \"sellerUsername\" " +
+            "FROM t_product_change c " +
+            "LEFT JOIN t_product p ON p.id = c.product_id " +
+            "LEFT JOIN t_user u ON u.id = p.seller_id " +
+            "WHERE c.seq > :after " +
+            "ORDER BY c.seq LIMIT :limit",
+            nativeQuery = true)
+    List<ProductChangeView> findChangesAfter(long after, int limit);
+
+    @Query(value = "SELECT COALESCE(MAX(seq), 0) FROM t_product_change", nativeQuery = true)
+    long findLastSeq();
+
+    /**
+     * Finds the sequence number below which compacted deletions may be missing.
+     */
+    @Query(value = "SELECT COALESCE(MAX(seq), 0) FROM t_product_change_horizon", nativeQuery = true)
+    long findHorizon();
+
+    /**
+     * Removes the sequenced entries superseded by a newer entry of the same product.
+     * Every client reading after such an entry also reads the newer one, so nothing is lost.
+     * Returns the number of removed entries.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM t_product_change WHERE id IN (" +
+            "SELECT c.id FROM t_product_change c WHERE c.seq IS NOT NULL AND EXISTS (" +
+            "SELECT 1 FROM t_product_change n WHERE n.product_id = c.product_id AND n.seq > c.seq) " +
+            "LIMIT :batchSize)",
+            nativeQuery = true)
+    int removeSupersededChanges(int batchSize);
+
+    /**
+     * Removes the deletions sequenced before the given time and moves the horizon
+     * past them, in a single statement. Returns the number of removed entries.
+     */
+    @Query(value = "WITH removed AS (" +
+            "DELETE FROM t_product_change WHERE id IN (" +
+            "SELECT id FROM t_product_change WHERE change_type = 'DELETED' AND seq IS NOT NULL " +
+            "AND created_at < :before LIMIT :batchSize) " +
+            "RETURNING seq), " +
+            "horizon AS (UPDATE t_product_change_horizon h SET seq = GREATEST(h.seq, r.max_seq) " +
+            "FROM (SELECT MAX(seq) AS max_seq FROM removed) r WHERE r.max_seq IS NOT NULL) " +
+            "SELECT COUNT(*) FROM removed",
+            nativeQuery = true)
+    int removeDeletionsBefore(Timestamp before, int batchSize);
+}
@@ -1,12 +1,16 @@
 package com.challenge.repository;
 
 import com.challenge.entity.Product;
+import com.challenge.repository.projection.ProductStockView;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -21,4 +25,130 @@ public interface ProductRepository extends JpaRepository<Product, UUID> {
     @Query("SELECT p FROM Product p WHERE p.id = :id")
     @Lock(value = LockModeType.PESSIMISTIC_WRITE)
     Optional<Product> findByIdPessimistic(UUID id);
+
+    /**
+     * Locks all the products in ascending id order, so that concurrent
+     * callers always acquire the locks in the same order.
+     */
+    @Query("SELECT p FROM Product p WHERE p.id IN :ids ORDER BY p.id")
+    @Lock(value = LockModeType.PESSIMISTIC_WRITE)
+    List<Product> findAllByIdPessimistic(Collection<UUID> ids);
+
+    /**
+     * Subtracts the amount from the product's stock only if enough is available and the
+     * stock is not split across stock slots, and returns the product's new state, in a single statement.
+     */
+    @Query(value = "UPDATE t_product p SET amount_available = p.amount_available - :amount, version = p.version + 1 " +
+            "FROM t_user u " +
+            "WHERE p.id = :id AND p.stock_slots = 0 AND p.amount_available >= :amount AND u.id = p.seller_id " +
+            "RETURNING CAST(p.id AS VARCHAR) AS \"id\", p.product_name AS \"productName\", " +
+            "p.amount_available AS \"amountAvailable\", p.cost AS \"cost\", " +
+            "CAST(u.id AS VARCHAR) AS \"sellerId\", u.username AS \"sellerUsername\"",
+            nativeQuery = true)
+    Optional<ProductStockView> subtractFromAmountAvailable(UUID id, int amount);
+
+    @Query("SELECT p.stockSlots FROM Product p WHERE p.id = :id")
+    Optional<Integer> findStockSlotsById(UUID id);
+
+    /**
+     * Finds the product's current state. The stock held by the product's
+     * stock slots is included in its available amount.
+     */
+    @Query(value = "SELECT CAST(p.id AS VARCHAR) AS \"id\", p.product_name AS \"productName\", " +
+            "p.amount_available + COALESCE((SELECT SUM(s.amount) FROM t_product_stock_slot s WHERE s.product_id = p.id), 0) " +
+            "AS \"amountAvailable\", p.cost AS \"cost\", " +
+            "CAST(u.id AS VARCHAR) AS \"sellerId\", u.username AS \"sellerUsername\" " +
+            "FROM t_product p JOIN t_user u ON u.id = p.seller_id " +
+            "WHERE p.id = :id",
+            nativeQuery = true)
+    Optional<ProductStockView> findStockViewById(UUID id);
+
+    /**
+     * Finds the first page of the catalogue ordered by id, with the sellers' details
+     * but without loading any entity.
+     */
+    @Query(value = "SELECT CAST(p.id AS VARCHAR) AS \"id\", p.product_name AS \"productName\", " +
+            "p.amount_available + COALESCE((SELECT SUM(s.amount) FROM t_product_stock_slot s WHERE s.product_id = p.id), 0) " +
+            "AS \"amountAvailable\", p.cost AS \"cost\", " +
+            "CAST(u.id AS VARCHAR) AS \"sellerId\", u.username AS \"sellerUsername\" " +
+            "FROM t_product p JOIN t_user u ON u.id = p.seller_id " +
+            "ORDER BY p.id LIMIT :limit",
+            nativeQuery = true)
+    List<ProductStockView> findCataloguePage(int limit);
+
+    /**
+     * Same as {@link #findCataloguePage(int)}, but finds the whole catalogue.
+     */
+    @Query(value = "SELECT CAST(p.id AS VARCHAR) AS \"id\", p.product_name AS \"productName\", " +
+            "p.amount_available + COALESCE((SELECT SUM(s.amount) FROM t_product_stock_slot s WHERE s.product_id = p.id), 0) " +
+            "AS \"amountAvailable\", p.cost AS \"cost\", " +
+            "CAST(u.id AS VARCHAR) AS \"sellerId\", u.username AS \"sellerUsername\" " +
+            "FROM t_product p JOIN t_user u ON u.id = p.seller_id " +
+            "ORDER BY p.id",
+            nativeQuery = true)
+    List<ProductStockView> findCatalogue();
+
+    /**
+     * Same as {@link #findCataloguePage(int)}, but continues after the given product id.
+     */
+    @Query(value = "SELECT CAST(p.id AS VARCHAR) AS \"id\", p.product_name AS \"productName\", " +
+            "p.amount_available + COALESCE((SELECT SUM(s.amount) FROM t_product_stock_slot s WHERE s.product_id = p.id), 0) " +
+            "AS \"amountAvailable\", p.cost AS \"cost\", " +
+            "CAST(u.id AS VARCHAR) AS \"sellerId\", u.username AS \"sellerUsername\" " +
+            "FROM t_product p JOIN t_user u ON u.id = p.seller_id " +
+            "WHERE p.id > :after " +
+            "ORDER BY p.id LIMIT :limit",
+            nativeQuery = true)
+    List<ProductStockView> findCataloguePageAfter(UUID after, int limit);
+
+    /**
+     * Subtracts the amount from a random stock slot holding enough of it. Slots locked by
+     * other transactions are skipped, so concurrent buyers spread across the slots.
+     * Returns the number of updated slots.
+     */
+    @Modifying
+    @Query(value = "UPDATE t_product_stock_slot s SET amount = s.amount - :amount " +
+            "WHERE (s.product_id, s.slot) = (" +
+            "SELECT f.product_id, f.slot FROM t_product_stock_slot f " +
+            "WHERE f.product_id = :productId AND f.amount >= :amount " +
+            "ORDER BY random() LIMIT 1 FOR UPDATE SKIP LOCKED)",
+            nativeQuery = true)
+    int subtractFromFreeStockSlot(UUID productId, int amount);
+
+    /**
+     * Subtracts the amount from a random stock slot holding enough of it, waiting for
+     * the slot if it's locked. Returns 0 if the slot was drained in the meantime.
+     */
+    @Modifying
+    @Query(value = "UPDATE t_product_stock_slot s SET amount = s.amount - :amount " +
+            "WHERE s.amount >= :amount AND (s.product_id, s.slot) = (" +
+            "SELECT f.product_id, f.slot FROM t_product_stock_slot f " +
+            "WHERE f.product_id = :productId AND f.amount >= :amount " +
+            "ORDER BY random() LIMIT 1)",
+            nativeQuery = true)
+    int subtractFromAnyStockSlot(UUID productId, int amount);
+
+    @Modifying
+    @Query(value = "UPDATE t_product_stock_slot SET amount = amount - :amount " +
+            "WHERE product_id = :productId AND slot = :slot",
+            nativeQuery = true)
+    int subtractFromStockSlot(UUID productId, int slot, int amount);
+
+    /**
+     * Locks all the stock slots of the product in slot order and returns their amounts.
+     * The slots are numbered from 0, so a slot's number is its index in the list.
+     */
+    @Query(value = "SELECT s.amount FROM t_product_stock_slot s WHERE s.product_id = :productId " +
+            "ORDER BY s.slot FOR UPDATE",
+            nativeQuery = true)
+    List<Integer> findStockSlotAmountsLocked(UUID productId);
+
+    @Modifying
+    @Query(value = "DELETE FROM t_product_stock_slot WHERE product_id = :productId", nativeQuery = true)
+    int deleteStockSlots(UUID productId);
+
+    @Modifying
+    @Query(value = "INSERT INTO t_product_stock_slot (product_id, slot, amount) VALUES (:productId, :slot, :amount)",
+            nativeQuery = true)
+    int insertStockSlot(UUID productId, int slot, int amount);
 }
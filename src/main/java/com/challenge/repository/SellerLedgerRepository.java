@@ -0,0 +1,36 @@
+package com.challenge.repository;
+
+import com.challenge.entity.SellerLedgerEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+/**
+ * Repository for {@link SellerLedgerEntry}
+ */
+@Repository
+public interface SellerLedgerRepository extends JpaRepository<SellerLedgerEntry, Long> {
+
+    @Modifying
+    @Query(value = "INSERT INTO t_seller_ledger (seller_id, amount) VALUES (:sellerId, :amount)", nativeQuery = true)
+    int appendCredit(UUID sellerId, int amount);
+
+    /**
+     * Removes the oldest entries and adds them to their sellers' deposits, in a single
+     * statement. Entries locked by a concurrent fold are skipped.
+     * Returns the number of folded entries.
+     */
+    @Query(value = "WITH folded AS (" +
+            "DELETE FROM t_seller_ledger WHERE id IN (" +
+            "SELECT id FROM t_seller_ledger ORDER BY id LIMIT :batchSize FOR UPDATE SKIP LOCKED) " +
+            "RETURNING seller_id, amount), " +
+            "totals AS (SELECT seller_id, SUM(amount) AS amount FROM folded GROUP BY seller_id), " +
+            "credited AS (UPDATE t_user u SET deposit = u.deposit + t.amount, version = u.version + 1 " +
+            "FROM totals t WHERE u.id = t.seller_id) " +
+            "SELECT COUNT(*) FROM folded",
+            nativeQuery = true)
+    int foldCredits(int batchSize);
+}
@@ -1,9 +1,16 @@
 package com.challenge.repository;
 
 import com.challenge.entity.User;
+import com.challenge.repository.projection.UserDepositView;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -13,7 +20,98 @@ import java.util.UUID;
 @Repository
 public interface UserRepository extends JpaRepository<User, UUID> {
 
+    /**
+     * Finds a user by its username with its role, which is needed for the user's authorities.
+     */
+    @EntityGraph(attributePaths = "role")
     Optional<User> findByUsername(String username);
 
+    /**
+     * Finds all the users with their roles and products in a single statement.
+     */
+    @Query("SELECT DISTINCT u FROM User u JOIN FETCH u.role LEFT JOIN FETCH u.products")
+    @QueryHints(@QueryHint(name = "hibernate.query.passDistinctThrough", value = "false"))
+    List<User> findAllWithRoleAndProducts();
+
     boolean existsByUsername(String username);
+
+    /**
+     * Subtracts the amount from the user's deposit only if the deposit is
+     * big enough and returns the new deposit, in a single statement.
+     */
+    @Query(value = "UPDATE t_user SET deposit = deposit - :amount, version = version + 1 " +
+            "WHERE id = :id AND deposit >= :amount " +
+            "RETURNING deposit",
+            nativeQuery = true)
+    Optional<Integer> subtractFromDeposit(UUID id, int amount);
+
+    @Modifying
+    @Query(value = "UPDATE t_user SET deposit = deposit + :amount, version = version + 1 WHERE id = :id", nativeQuery = true)
+    int addToDeposit(UUID id, int amount);
+
+    /**
+     * Adds the amount to the user's deposit and returns the user with the new deposit,
+     * in a single statement.
+     */
+    @Query(value = "UPDATE t_user u SET deposit = u.deposit + :amount, version = u.version + 1 " +
+            "FROM t_user_role ur JOIN t_role r ON r.id = ur.role_id " +
+            "WHERE u.id = :id AND ur.user_id = u.id " +
+            "RETURNING CAST(u.id AS VARCHAR) AS \"id\", u.username AS \"username\", " +
+            "u.deposit AS \"deposit\", r.name AS \"roleType\"",
+            nativeQuery = true)
+    Optional<UserDepositView> addToDepositReturningUser(UUID id, int amount);
+
+    /**
+     * Sets the user's deposit to 0 in a single statement. The user is returned
+     * with the deposit it had <b>before</b> the reset, so that it can be paid back.
+     */
+    @Query(value = "UPDATE t_user u SET deposit = 0, version = u.version + 1 " +
+            "FROM (SELECT id, deposit FROM t_user WHERE id = :id FOR UPDATE) old, " +
+            "t_user_role ur JOIN t_role r ON r.id = ur.role_id " +
+            "WHERE u.id = old.id AND ur.user_id = u.id " +
+            "RETURNING CAST(u.id AS VARCHAR) AS \"id\", u.username AS \"username\", " +
+            "old.deposit AS \"deposit\", r.name AS \"roleType\"",
+            nativeQuery = true)
+    Optional<UserDepositView> resetDepositReturningUser(UUID id);
+
+    /**
+     * Finds the user's deposit details without loading the user's products.
+     */
+    @Query("SELECT u.id AS id, u.username AS username, u.deposit AS deposit, r.roleType AS roleType " +
+            "FROM User u JOIN u.role r WHERE u.id = :id")
+    Optional<UserDepositView> findDepositViewById(UUID id);
+
+    @Query("SELECT u.tokenEpoch FROM User u WHERE u.id = :id")
+    Optional<Integer> findTokenEpochById(UUID id);
+
+    /**
+     * Revokes all the user's tokens. The version is not incremented, so a
+     * loaded user can still be updated in the same transaction.
+     */
+    @Modifying
+    @Query(value = "UPDATE t_user SET token_epoch = token_epoch + 1 WHERE id = :id", nativeQuery = true)
+    int incrementTokenEpoch(UUID id);
+
+    /**
+     * Adds escrowed coins to the user's deposit, unless the coins up to the
+     * given sequence number were already added.
+     */
+    @Modifying
+    @Query(value = "UPDATE t_user SET deposit = deposit + :amount, escrow_seq = :escrowSeq, version = version + 1 " +
+            "WHERE id = :id AND escrow_seq < :escrowSeq",
+            nativeQuery = true)
+    int addEscrowedDeposit(UUID id, int amount, long escrowSeq);
+
+    @Query(value = "SELECT escrow_seq FROM t_user WHERE id = :id", nativeQuery = true)
+    Optional<Long> findEscrowSeqById(UUID id);
+
+    /**
+     * Locks the user's row until the end of the transaction, so the escrowed coins
+     * of a user are added by one transaction at a time.
+     */
+    @Query(value = "SELECT escrow_seq FROM t_user WHERE id = :id FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockEscrowSeqById(UUID id);
+
+    @Query(value = "SELECT COALESCE(MAX(escrow_seq), 0) FROM t_user", nativeQuery = true)
+    long findMaxEscrowSeq();
 }
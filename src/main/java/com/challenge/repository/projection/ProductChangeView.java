@@ -0,0 +1,27 @@
+package com.challenge.repository.projection;
+
+import com.challenge.entity.ProductChangeType;
+
+/**
+ * Projection of a product change joined to the product's current state.
+ * The product's fields are null if the product was deleted.
+ * Ids are returned as text by the native queries.
+ */
+public interface ProductChangeView {
+
+    long getSeq();
+
+    ProductChangeType getChangeType();
+
+    String getProductId();
+
+    String getProductName();
+
+    Integer getAmountAvailable();
+
+    Integer getCost();
+
+    String getSellerId();
+
+    String getSellerUsername();
+}
@@ -0,0 +1,20 @@
+package com.challenge.repository.projection;
+
+/**
+ * Projection of a product's state returned by the guarded stock updates.
+ * Ids are returned as text by the native queries.
+ */
+public interface ProductStockView {
+
+    String getId();
+
+    String getProductName();
+
+    int getAmountAvailable();
+
+    int getCost();
+
+    String getSellerId();
+
+    String getSellerUsername();
+}
@@ -0,0 +1,19 @@
+package com.challenge.repository.projection;
+
+import com.challenge.entity.RoleType;
+
+import java.util.UUID;
+
+/**
+ * Projection of a user's deposit details, read without loading the user's products
+ */
+public interface UserDepositView {
+
+    UUID getId();
+
+    String getUsername();
+
+    int getDeposit();
+
+    RoleType getRoleType();
+}
@@ -0,0 +1,22 @@
+package com.challenge.security;
+
+import com.challenge.entity.RoleType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.UUID;
+
+/**
+ * Principal of an authorized request. It is built from the claims of the
+ * verified JWT, so the user's id and role are known without loading the user.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class AuthenticatedUser {
+
+    private final UUID id;
+    private final String username;
+    private final RoleType role;
+}
@@ -45,9 +45,9 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
                 .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
 
         http.authorizeRequests()
-                .antMatchers(HttpMethod.POST, "/api/user").permitAll()
-                .antMatchers(HttpMethod.GET, "/api/product").authenticated()
-                .antMatchers("/api/product").hasAuthority(RoleType.ROLE_SELLER.name())
+                .antMatchers(HttpMethod.POST, "/api/user", "/api/login/refresh").permitAll()
+                .antMatchers(HttpMethod.GET, "/api/product", "/api/product/changes").authenticated()
+                .antMatchers("/api/product", "/api/product/**").hasAuthority(RoleType.ROLE_SELLER.name())
                 .antMatchers("/api/transaction/**").hasAuthority(RoleType.ROLE_BUYER.name())
                 .anyRequest().authenticated();
 
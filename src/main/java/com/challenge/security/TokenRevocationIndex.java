@@ -0,0 +1,125 @@
+package com.challenge.security;
+
+import com.challenge.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the revoked access tokens, so that authorized requests are
+ * checked without querying the database. Only the users' token epochs are kept:
+ * a token issued with an older epoch than the user's current one is revoked, so all
+ * of a user's tokens are revoked by incrementing the epoch. A single access token is
+ * not revoked, it's short-lived, and its refresh token can only be used once.
+ * <p>
+ * The epochs are loaded from the database the first time a user's token is checked, and
+ * again once they are older than the epoch TTL. A deleted user is cached as an epoch
+ * that no token matches.
+ * <p>
+ * Epochs incremented on this instance are forgotten right away. With several instances,
+ * an epoch incremented by another instance is only seen here once the cached epoch
+ * expires, so a revoked token may still be accepted for up to the epoch TTL.
+ */
+@Component
+public class TokenRevocationIndex {
+
+    private final UserRepository userRepository;
+
+    /**
+     * User id -> current token epoch of the user
+     */
+    private final Map<UUID, CachedEpoch> tokenEpochs = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented whenever an epoch is forgotten, so that an epoch loaded
+     * concurrently is not cached after it was forgotten
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final long epochTtlMillis;
+
+    public TokenRevocationIndex(UserRepository userRepository,
+                                @Value("${security.revocation.epochTtlMillis}") long epochTtlMillis) {
+        this.userRepository = userRepository;
+        this.epochTtlMillis = epochTtlMillis;
+    }
+
+    /**
+     * Forgets the cached token epoch of a user whose epoch is being incremented. It is
+     * forgotten again once the transaction completes, so that an epoch read before the
+     * increment was committed is not kept.
+     */
+    public void invalidateTokenEpoch(UUID userId) {
+        forgetTokenEpoch(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    forgetTokenEpoch(userId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks if a token was revoked. Tokens of deleted users are always revoked.
+     */
+    public boolean isRevoked(UUID userId, int tokenEpoch) {
+        Integer currentEpoch = getTokenEpoch(userId);
+        return currentEpoch == null || tokenEpoch != currentEpoch;
+    }
+
+    /**
+     * Scheduled job to forget the cached epochs older than the TTL,
+     * so only the epochs of active users are kept.
+     */
+    @Scheduled(fixedDelayString = "${security.revocation.purgeIntervalMillis}")
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        tokenEpochs.values().removeIf(cachedEpoch -> cachedEpoch.expiresAt < now);
+    }
+
+    /**
+     * Gets the user's token epoch, or null if the user was deleted. The epoch is read from
+     * the database outside the map's lock, so a slow query only delays the checks of that user.
+     */
+    private Integer getTokenEpoch(UUID userId) {
+        long now = System.currentTimeMillis();
+        CachedEpoch cachedEpoch = tokenEpochs.get(userId);
+        if (cachedEpoch != null && cachedEpoch.expiresAt >= now) {
+            return cachedEpoch.epoch;
+        }
+
+        long invalidationsBefore = invalidations.get();
+        CachedEpoch loadedEpoch = new CachedEpoch(userRepository.findTokenEpochById(userId).orElse(null), now + epochTtlMillis);
+        tokenEpochs.put(userId, loadedEpoch);
+        if (invalidations.get() != invalidationsBefore) {
+            // it may have been read before an increment was committed
+            tokenEpochs.remove(userId, loadedEpoch);
+        }
+        return loadedEpoch.epoch;
+    }
+
+    private void forgetTokenEpoch(UUID userId) {
+        invalidations.incrementAndGet();
+        tokenEpochs.remove(userId);
+    }
+
+    /**
+     * Token epoch of a user, null for a deleted user
+     */
+    @RequiredArgsConstructor
+    private static class CachedEpoch {
+
+        private final Integer epoch;
+        private final long expiresAt;
+    }
+}
@@ -5,7 +5,6 @@ import com.challenge.dto.error.ApiErrorDto;
 import com.challenge.dto.user.UserEntryDto;
 import com.challenge.entity.User;
 import com.challenge.exception.ExceptionFactory;
-import com.challenge.service.JWTService;
 import com.challenge.service.UserAuthenticationService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -40,14 +39,12 @@ public class AuthenticationFilter extends UsernamePasswordAuthenticationFilter {
 
     private final AuthenticationManager authenticationManager;
     private final ObjectMapper objectMapper;
-    private final JWTService jwtService;
     private final UserAuthenticationService userAuthenticationService;
     private final MessageSource messageSource;
 
     public AuthenticationFilter(AuthenticationManager authenticationManager, ApplicationContext applicationContext) {
         this.authenticationManager = authenticationManager;
         this.objectMapper = applicationContext.getBean(ObjectMapper.class);
-        this.jwtService = applicationContext.getBean(JWTService.class);
         this.userAuthenticationService = applicationContext.getBean(UserAuthenticationService.class);
         this.messageSource = applicationContext.getBean(MessageSource.class);
     }
@@ -79,18 +76,17 @@ public class AuthenticationFilter extends UsernamePasswordAuthenticationFilter {
                                             FilterChain chain,
                                             Authentication authentication) throws IOException {
 
-        // get user and generate the access token
         User user = (User) authentication.getPrincipal();
-        String accessToken = jwtService.generateToken(user.getUsername(), user.getRole().getAuthority(), request.getRequestURL().toString());
         log.info("Authentication for user: {} was successful", user.getUsername());
 
         // check if user already has active tokens
         boolean hasUserActiveSessions = userAuthenticationService.isUserAlreadyAuthenticated(user.getUsername());
         String responseMessage = hasUserActiveSessions ? messageSource.getMessage(ACTIVE_SESSIONS_PRESENT, null, Locale.ENGLISH) : null;
-        AuthResponseDto authResponseDto = new AuthResponseDto(responseMessage, accessToken);
 
-        // create a new authentication entry with the new token and set response
-        userAuthenticationService.saveNewAuthentication(user.getUsername(), accessToken, jwtService.getTokenExpiration(accessToken));
+        // start a new session with new access and refresh tokens and set response
+        AuthResponseDto authResponseDto = userAuthenticationService.startSession(user.getId(), user.getUsername(),
+                user.getRole().getAuthority(), user.getTokenEpoch(), request.getRequestURL().toString());
+        authResponseDto.setResponseMessage(responseMessage);
         response.setContentType(MediaType.APPLICATION_JSON_VALUE);
         response.getWriter().write(objectMapper.writeValueAsString(authResponseDto));
     }
@@ -1,13 +1,14 @@
 package com.challenge.security.filter;
 
+import com.auth0.jwt.interfaces.DecodedJWT;
 import com.challenge.dto.error.ApiErrorDto;
+import com.challenge.security.AuthenticatedUser;
 import com.challenge.service.JWTService;
 import com.challenge.service.UserAuthenticationService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationContext;
-import org.springframework.data.util.Pair;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
@@ -33,7 +34,7 @@ public class AuthorizationFilter extends OncePerRequestFilter {
     /**
      * Endpoints that should not be filtered
      */
-    public static final Set<String> pathWhiteList = Set.of("/api/login", "/api/user");
+    public static final Set<String> pathWhiteList = Set.of("/api/login", "/api/login/refresh", "/api/user");
 
     private final JWTService jwtService;
     private final ObjectMapper objectMapper;
@@ -56,22 +57,24 @@ public class AuthorizationFilter extends OncePerRequestFilter {
 
         String bearerToken = request.getHeader(HttpHeaders.AUTHORIZATION);
         try {
-            // get username->role pair from JWT
-            Pair<String, SimpleGrantedAuthority> usernameAuthoritiesPair = jwtService.getUserInfoFromToken(bearerToken);
+            // the token is verified and decoded once, then only its claims are used
+            DecodedJWT decodedJWT = jwtService.verifyToken(bearerToken);
+            AuthenticatedUser user = jwtService.getUserInfoFromToken(decodedJWT);
 
-            log.info("Authorizing user: {}", usernameAuthoritiesPair.getFirst());
+            log.info("Authorizing user: {}", user.getUsername());
 
             // check if token is active, else authorization will not go through
-            boolean isTokenActive = userAuthenticationService.isTokenActive(jwtService.getPlainToken(bearerToken));
+            boolean isTokenActive = userAuthenticationService.isTokenActive(user.getId(),
+                    decodedJWT.getId(), jwtService.getTokenEpoch(decodedJWT));
             if (isTokenActive) {
                 UsernamePasswordAuthenticationToken authenticationToken =
-                        new UsernamePasswordAuthenticationToken(usernameAuthoritiesPair.getFirst(),
-                                null, Set.of(usernameAuthoritiesPair.getSecond()));
+                        new UsernamePasswordAuthenticationToken(user, null,
+                                Set.of(new SimpleGrantedAuthority(user.getRole().name())));
 
                 // authenticate user
                 SecurityContextHolder.getContext().setAuthentication(authenticationToken);
                 log.info("User: {} with roles {} was successfully authorized",
-                        authenticationToken.getPrincipal(), authenticationToken.getAuthorities());
+                        user.getUsername(), authenticationToken.getAuthorities());
 
                 filterChain.doFilter(request, response);
             } else {
@@ -0,0 +1,47 @@
+package com.challenge.service;
+
+/**
+ * Claim of an idempotency key by a request committed in a transaction of its own, e.g. a buy.
+ * The key is claimed and the response is stored in the transaction that commits the request,
+ * so the key is used up exactly when the request is applied. A transaction that is rolled back
+ * also rolls back its claim, and the request can be run again.
+ */
+public interface IdempotencyClaim {
+
+    /**
+     * Claim of a request made without an idempotency key
+     */
+    IdempotencyClaim NONE = new IdempotencyClaim() {
+
+        @Override
+        public boolean claim() {
+            return true;
+        }
+
+        @Override
+        public void complete(Object response) {
+        }
+
+        @Override
+        public void release() {
+        }
+    };
+
+    /**
+     * Claims the key in the current transaction. If another transaction is claiming it,
+     * waits for that transaction to complete. Returns false if the key was already used,
+     * and the request must then not be applied.
+     */
+    boolean claim();
+
+    /**
+     * Stores the response of the request in the current transaction, which claimed the key.
+     */
+    void complete(Object response);
+
+    /**
+     * Gives the key back in the current transaction, which claimed the key but commits
+     * without applying the request.
+     */
+    void release();
+}
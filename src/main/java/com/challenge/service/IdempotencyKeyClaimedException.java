@@ -0,0 +1,13 @@
+package com.challenge.service;
+
+/**
+ * Thrown inside the transaction of a request whose idempotency key was already used by an
+ * earlier run of the same request. Nothing was applied, so the transaction is rolled back
+ * and the stored response of the earlier run is returned instead.
+ */
+public class IdempotencyKeyClaimedException extends RuntimeException {
+
+    public IdempotencyKeyClaimedException() {
+        super("Idempotency key was already used", null, false, false);
+    }
+}
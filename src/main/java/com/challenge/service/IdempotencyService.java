@@ -0,0 +1,310 @@
+package com.challenge.service;
+
+import com.challenge.entity.IdempotencyRecord;
+import com.challenge.exception.ExceptionFactory;
+import com.challenge.exception.exceptions.IdempotencyKeyException;
+import com.challenge.exception.exceptions.InvalidInputException;
+import com.challenge.repository.IdempotencyRecordRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Service class making requests with an idempotency key run only once. The key is claimed
+ * in the database in the transaction running the request, together with its response, so a
+ * retried request gets the original response. A request committed in a transaction of its own,
+ * like a buy, gets an {@link IdempotencyClaim} to do the same in that transaction. The latest
+ * responses are also kept in memory, so most retries are answered without touching the database.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    /**
+     * Error message keys
+     */
+    private static final String IN_PROGRESS = "exception.idempotencyKey.inProgress";
+    private static final String KEY_REUSED = "exception.invalidInput.idempotencyKeyReused";
+    private static final String KEY_TOO_LONG = "exception.invalidInput.idempotencyKeyTooLong";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final UserService userService;
+    private final ObjectWriter requestWriter;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final int cacheSize;
+    private final Duration retention;
+
+    private final Map<CacheKey, StoredResponse> recentResponses = new ConcurrentHashMap<>();
+    private final Queue<CacheKey> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              UserService userService,
+                              ObjectMapper objectMapper,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${transaction.idempotency.cacheSize}") int cacheSize,
+                              @Value("${transaction.idempotency.retentionHours}") long retentionHours) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.userService = userService;
+        this.requestWriter = objectMapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.cacheSize = cacheSize;
+        this.retention = Duration.ofHours(retentionHours);
+    }
+
+    /**
+     * Runs the action once for the current user and idempotency key. The key is claimed and the
+     * response is stored in the action's transaction, so the action must join the current transaction.
+     * If the key was already used for the same operation and request, the stored response is returned
+     * instead. A failed action doesn't use up the key. Without a key, the action is simply run.
+     *
+     * @param idempotencyKey key sent by the client, may be null
+     * @param operation      name of the operation, a key can't be reused for another one
+     * @param request        request body, a key can't be reused for another one
+     * @param responseType   type of the response, used to read a stored response
+     * @param action         the operation itself
+     */
+    public <T> T execute(String idempotencyKey, String operation, Object request, Class<T> responseType, Supplier<T> action) {
+        if (idempotencyKey == null) {
+            return action.get();
+        }
+
+        CacheKey cacheKey = createCacheKey(idempotencyKey);
+        String requestDigest = digest(request);
+        StoredResponse cachedResponse = recentResponses.get(cacheKey);
+        if (cachedResponse != null && !isExpired(cachedResponse.createdAt)) {
+            return replay(cachedResponse, operation, requestDigest, responseType);
+        }
+
+        return transactionTemplate.execute(status -> {
+            int claimed = idempotencyRecordRepository.claim(UUID.randomUUID(), cacheKey.username, idempotencyKey,
+                    operation, requestDigest);
+            if (claimed == 0) {
+                return replayStored(cacheKey, operation, requestDigest, responseType);
+            }
+
+            T response = action.get();
+            idempotencyRecordRepository.complete(cacheKey.username, idempotencyKey, toJson(response));
+            cacheAfterCommit(cacheKey, new StoredResponse(operation, requestDigest, response, Instant.now()));
+            return response;
+        });
+    }
+
+    /**
+     * Runs the action once for the current user and idempotency key, like {@link #execute}, for an
+     * action committed in transactions of its own. The action gets the claim of the key, and must
+     * claim the key and store its response in the transaction committing it. If the key was already
+     * used, the action throws {@link IdempotencyKeyClaimedException} and the stored response
+     * is returned instead.
+     */
+    public <T> T executeWithClaim(String idempotencyKey, String operation, Object request, Class<T> responseType,
+                                  Function<IdempotencyClaim, T> action) {
+        if (idempotencyKey == null) {
+            return action.apply(IdempotencyClaim.NONE);
+        }
+
+        CacheKey cacheKey = createCacheKey(idempotencyKey);
+        String requestDigest = digest(request);
+        StoredResponse cachedResponse = recentResponses.get(cacheKey);
+        if (cachedResponse != null && !isExpired(cachedResponse.createdAt)) {
+            return replay(cachedResponse, operation, requestDigest, responseType);
+        }
+
+        // a retry of a request that was already applied doesn't run the action at all
+        Optional<IdempotencyRecord> idempotencyRecord = idempotencyRecordRepository
+                .findByUsernameAndIdempotencyKey(cacheKey.username, idempotencyKey);
+        if (idempotencyRecord.isPresent()) {
+            return replayRecord(cacheKey, idempotencyRecord.get(), operation, requestDigest, responseType);
+        }
+
+        try {
+            return action.apply(new TransactionalClaim(cacheKey, operation, requestDigest));
+        } catch (IdempotencyKeyClaimedException ex) {
+            return replayStored(cacheKey, operation, requestDigest, responseType);
+        }
+    }
+
+    /**
+     * Scheduled job to remove the idempotency keys older than the retention period
+     */
+    @Scheduled(fixedDelayString = "${transaction.idempotency.cleanUpIntervalMillis}",
+            initialDelayString = "${transaction.idempotency.cleanUpIntervalMillis}")
+    public void removeExpiredKeys() {
+        Timestamp createdBefore = Timestamp.from(Instant.now().minus(retention));
+        Integer removed = transactionTemplate.execute(status -> idempotencyRecordRepository.removeAllCreatedBefore(createdBefore));
+        recentResponses.values().removeIf(storedResponse -> isExpired(storedResponse.createdAt));
+        log.info("Cleanup job for idempotency keys removed {} keys", removed);
+    }
+
+    private CacheKey createCacheKey(String idempotencyKey) {
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw ExceptionFactory.create(InvalidInputException.class, KEY_TOO_LONG, MAX_KEY_LENGTH);
+        }
+        return new CacheKey(userService.getAuthenticatedUsername(), idempotencyKey);
+    }
+
+    /**
+     * Answers a request whose key was claimed earlier, using the response stored in the database.
+     */
+    private <T> T replayStored(CacheKey cacheKey, String operation, String requestDigest, Class<T> responseType) {
+        IdempotencyRecord idempotencyRecord = idempotencyRecordRepository
+                .findByUsernameAndIdempotencyKey(cacheKey.username, cacheKey.idempotencyKey)
+                .orElseThrow(() -> ExceptionFactory.create(IdempotencyKeyException.class, IN_PROGRESS));
+        return replayRecord(cacheKey, idempotencyRecord, operation, requestDigest, responseType);
+    }
+
+    private <T> T replayRecord(CacheKey cacheKey, IdempotencyRecord idempotencyRecord, String operation,
+                               String requestDigest, Class<T> responseType) {
+        if (!idempotencyRecord.getOperation().equals(operation) || !idempotencyRecord.getRequestDigest().equals(requestDigest)) {
+            throw ExceptionFactory.create(InvalidInputException.class, KEY_REUSED);
+        }
+        if (idempotencyRecord.getResponseBody() == null) {
+            throw ExceptionFactory.create(IdempotencyKeyException.class, IN_PROGRESS);
+        }
+
+        StoredResponse storedResponse = new StoredResponse(idempotencyRecord.getOperation(), idempotencyRecord.getRequestDigest(),
+                fromJson(idempotencyRecord.getResponseBody(), responseType), idempotencyRecord.getCreatedAt().toInstant());
+        cache(cacheKey, storedResponse);
+        return replay(storedResponse, operation, requestDigest, responseType);
+    }
+
+    private <T> T replay(StoredResponse storedResponse, String operation, String requestDigest, Class<T> responseType) {
+        if (!storedResponse.operation.equals(operation) || !storedResponse.requestDigest.equals(requestDigest)) {
+            throw ExceptionFactory.create(InvalidInputException.class, KEY_REUSED);
+        }
+        return responseType.cast(storedResponse.response);
+    }
+
+    /**
+     * Keeps the response in memory once the current transaction, which stored it, is committed.
+     */
+    private void cacheAfterCommit(CacheKey cacheKey, StoredResponse storedResponse) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache(cacheKey, storedResponse);
+            }
+        });
+    }
+
+    /**
+     * Keeps the response in memory. The oldest responses are forgotten first.
+     */
+    private void cache(CacheKey cacheKey, StoredResponse storedResponse) {
+        if (recentResponses.put(cacheKey, storedResponse) == null) {
+            insertionOrder.offer(cacheKey);
+        }
+        CacheKey eldest;
+        while (recentResponses.size() > cacheSize && (eldest = insertionOrder.poll()) != null) {
+            recentResponses.remove(eldest);
+        }
+    }
+
+    private boolean isExpired(Instant createdAt) {
+        return createdAt.plus(retention).isBefore(Instant.now());
+    }
+
+    /**
+     * Computes the SHA-256 digest of the serialized request, so a key can't be reused
+     * for another request with the same hash code.
+     */
+    private String digest(Object request) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(messageDigest.digest(requestWriter.writeValueAsBytes(request)));
+        } catch (JsonProcessingException | NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Unable to digest request: " + ex.getMessage(), ex);
+        }
+    }
+
+    private String toJson(Object response) {
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Unable to store response: " + ex.getMessage(), ex);
+        }
+    }
+
+    private <T> T fromJson(String responseBody, Class<T> responseType) {
+        try {
+            return objectMapper.readValue(responseBody, responseType);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Unable to read stored response: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Claim of a key in the transactions of the request
+     */
+    @RequiredArgsConstructor
+    private class TransactionalClaim implements IdempotencyClaim {
+
+        private final CacheKey cacheKey;
+        private final String operation;
+        private final String requestDigest;
+
+        @Override
+        public boolean claim() {
+            return idempotencyRecordRepository.claim(UUID.randomUUID(), cacheKey.username, cacheKey.idempotencyKey,
+                    operation, requestDigest) == 1;
+        }
+
+        @Override
+        public void complete(Object response) {
+            idempotencyRecordRepository.complete(cacheKey.username, cacheKey.idempotencyKey, toJson(response));
+            cacheAfterCommit(cacheKey, new StoredResponse(operation, requestDigest, response, Instant.now()));
+        }
+
+        @Override
+        public void release() {
+            idempotencyRecordRepository.release(cacheKey.username, cacheKey.idempotencyKey);
+        }
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class CacheKey {
+
+        private final String username;
+        private final String idempotencyKey;
+    }
+
+    @RequiredArgsConstructor
+    private static class StoredResponse {
+
+        private final String operation;
+        private final String requestDigest;
+        private final Object response;
+        private final Instant createdAt;
+    }
+}
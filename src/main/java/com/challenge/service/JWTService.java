@@ -1,18 +1,21 @@
 package com.challenge.service;
 
 import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.challenge.entity.RoleType;
 import com.challenge.exception.ExceptionFactory;
+import com.challenge.security.AuthenticatedUser;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.util.Pair;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.UUID;
 
 /**
  * Service class for JWT validation and creation
@@ -22,6 +25,14 @@ public class JWTService {
 
     private static final String INVALID_TOKEN = "exception.jwtVerification.invalidToken";
     private static final String TOKEN_PREFIX = "Bearer ";
+    private static final String USER_ID_CLAIM = "uid";
+    private static final String TOKEN_EPOCH_CLAIM = "epoch";
+    private static final String TOKEN_TYPE_CLAIM = "type";
+    private static final String ACCESS_TOKEN = "access";
+    private static final String REFRESH_TOKEN = "refresh";
+
+    @Value("${security.jwt.accessTokenExpirationInMinutes}")
+    private int accessTokenExpirationInMinutes;
 
     @Value("${security.jwt.tokenExpirationInHours}")
     private int tokenExpirationInHours;
@@ -32,33 +43,85 @@ public class JWTService {
     @Value("${security.jwt.claim}")
     private String claim;
 
+    private Algorithm algorithm;
+    private JWTVerifier jwtVerifier;
+
     /**
-     * Generates a JWT using the user's username, roles. It uses the HMAC256 algorithm
-     * to generate the token.
+     * Builds the algorithm and the verifier once, they are thread safe and can be shared by all requests.
      */
-    public String generateToken(String username, String role, String requestURL) {
-        return JWT.create()
-                .withSubject(username)
-                .withExpiresAt(getExpirationDate())
-                .withIssuer(requestURL)
-                .withClaim(claim, role)
-                .sign(Algorithm.HMAC256(secret.getBytes()));
+    @PostConstruct
+    public void initVerifier() {
+        algorithm = Algorithm.HMAC256(secret.getBytes());
+        jwtVerifier = JWT.require(algorithm).build();
     }
 
     /**
-     * Validates a token and returns a pair of username->roles.
-     *
-     * @return {@link Pair} of username and the user's roles
+     * Generates a short-lived access token using the user's id, username, role and token epoch.
+     * It uses the HMAC256 algorithm to generate the token.
      */
-    public Pair<String, SimpleGrantedAuthority> getUserInfoFromToken(String bearerToken) {
-        String token = getPlainToken(bearerToken);
-        DecodedJWT decodedJWT = getDecodedJWT(token);
+    public String generateToken(UUID userId, String username, String role, int tokenEpoch, String requestURL) {
+        return createToken(userId, username, role, tokenEpoch, requestURL)
+                .withExpiresAt(getExpirationDate(Calendar.MINUTE, accessTokenExpirationInMinutes))
+                .withClaim(TOKEN_TYPE_CLAIM, ACCESS_TOKEN)
+                .sign(algorithm);
+    }
+
+    /**
+     * Generates a refresh token holding the same claims as an access token. Refresh tokens
+     * can only be used to get new tokens and each of them is stored as an authentication entry.
+     */
+    public String generateRefreshToken(UUID userId, String username, String role, int tokenEpoch, String requestURL) {
+        return createToken(userId, username, role, tokenEpoch, requestURL)
+                .withExpiresAt(getExpirationDate(Calendar.HOUR, tokenExpirationInHours))
+                .withClaim(TOKEN_TYPE_CLAIM, REFRESH_TOKEN)
+                .sign(algorithm);
+    }
 
+    /**
+     * Validates a bearer access token and decodes it. The decoded token should be passed on
+     * instead of the bearer token, so that it's verified only once per request.
+     */
+    public DecodedJWT verifyToken(String bearerToken) {
+        return verifyTokenType(getDecodedJWT(getPlainToken(bearerToken)), ACCESS_TOKEN);
+    }
+
+    /**
+     * Validates a refresh token and decodes it.
+     */
+    public DecodedJWT verifyRefreshToken(String refreshToken) {
+        return verifyTokenType(getDecodedJWT(refreshToken), REFRESH_TOKEN);
+    }
+
+    /**
+     * Gets the user a verified token was issued for.
+     *
+     * @return {@link AuthenticatedUser} built from the token's claims
+     */
+    public AuthenticatedUser getUserInfoFromToken(DecodedJWT decodedJWT) {
         // get user details from JWT
         String username = decodedJWT.getSubject();
-        String role = decodedJWT.getClaim(claim).as(String.class);
+        String userId = decodedJWT.getClaim(USER_ID_CLAIM).asString();
+        String role = decodedJWT.getClaim(claim).asString();
+        if (username == null || userId == null || role == null) {
+            throw ExceptionFactory.create(JWTVerificationException.class, INVALID_TOKEN, decodedJWT.getToken());
+        }
 
-        return Pair.of(username, new SimpleGrantedAuthority(role));
+        try {
+            return new AuthenticatedUser(UUID.fromString(userId), username, RoleType.valueOf(role));
+        } catch (IllegalArgumentException ex) {
+            throw ExceptionFactory.create(JWTVerificationException.class, INVALID_TOKEN, decodedJWT.getToken());
+        }
+    }
+
+    /**
+     * Gets the token epoch of the user at the time the token was issued.
+     */
+    public int getTokenEpoch(DecodedJWT decodedJWT) {
+        Integer tokenEpoch = decodedJWT.getClaim(TOKEN_EPOCH_CLAIM).asInt();
+        if (tokenEpoch == null) {
+            throw ExceptionFactory.create(JWTVerificationException.class, INVALID_TOKEN, decodedJWT.getToken());
+        }
+        return tokenEpoch;
     }
 
     /**
@@ -69,11 +132,19 @@ public class JWTService {
         return decodedJWT.getExpiresAt();
     }
 
+    /**
+     * Gets the id (jti claim) of a JWT
+     */
+    public UUID getTokenId(String token) {
+        DecodedJWT decodedJWT = getDecodedJWT(token);
+        return UUID.fromString(decodedJWT.getId());
+    }
+
     /**
      * Check if token is valid and get plain jwt token
      * without the prefix.
      */
-    public String getPlainToken(String bearerToken) {
+    private String getPlainToken(String bearerToken) {
         if (!isTokenValid(bearerToken)) {
             throw ExceptionFactory.create(JWTVerificationException.class, INVALID_TOKEN, bearerToken);
         }
@@ -91,21 +162,42 @@ public class JWTService {
      * Verify and decode JWT
      */
     private DecodedJWT getDecodedJWT(String token) {
-        // build algorithm and verify JWT
-        Algorithm algorithm = Algorithm.HMAC256(secret.getBytes());
-        JWTVerifier jwtVerifier = JWT.require(algorithm).build();
         return jwtVerifier.verify(token);
     }
 
+    /**
+     * Checks if a token can be used for the purpose it's verified for.
+     */
+    private DecodedJWT verifyTokenType(DecodedJWT decodedJWT, String tokenType) {
+        if (!tokenType.equals(decodedJWT.getClaim(TOKEN_TYPE_CLAIM).asString())) {
+            throw ExceptionFactory.create(JWTVerificationException.class, INVALID_TOKEN, decodedJWT.getToken());
+        }
+        return decodedJWT;
+    }
+
+    /**
+     * Creates a JWT with the claims shared by access and refresh tokens
+     */
+    private JWTCreator.Builder createToken(UUID userId, String username, String role, int tokenEpoch, String requestURL) {
+        return JWT.create()
+                .withJWTId(UUID.randomUUID().toString())
+                .withSubject(username)
+                .withIssuedAt(new Date())
+                .withIssuer(requestURL)
+                .withClaim(USER_ID_CLAIM, userId.toString())
+                .withClaim(TOKEN_EPOCH_CLAIM, tokenEpoch)
+                .withClaim(claim, role);
+    }
+
     /**
      * Generates the expiration date for the new JWT
      *
-     * @return current date + expiration in hours
+     * @return current date + the given amount of the calendar field
      */
-    private Date getExpirationDate() {
+    private Date getExpirationDate(int calendarField, int amount) {
         Calendar calendar = Calendar.getInstance();
         calendar.setTime(new Date());
-        calendar.add(Calendar.HOUR, tokenExpirationInHours);
+        calendar.add(calendarField, amount);
         return calendar.getTime();
     }
 }
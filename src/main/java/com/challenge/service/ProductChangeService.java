@@ -0,0 +1,142 @@
+package com.challenge.service;
+
+import com.challenge.catalogue.CatalogueCache;
+import com.challenge.dto.product.ProductChangeDto;
+import com.challenge.dto.product.ProductChangeFeedDto;
+import com.challenge.entity.ProductChangeType;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.ProductChangeRepository;
+import com.challenge.repository.projection.ProductChangeView;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Service class for the product change log, from which the machines sync their catalogue
+ * in the order of the changes instead of reading the whole catalogue. Every change to a
+ * product is appended to the log in the transaction making it, and also invalidates
+ * the catalogue cache.
+ * <p>
+ * Sequence numbers are assigned by a scheduled sequencer after the entries are committed,
+ * so that they follow the commit order: an entry committed late can't get a lower number
+ * than the entries a client has already read. A scheduled job compacts the log by removing
+ * the entries superseded by a newer change of the same product, and the deletions older
+ * than the retention.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProductChangeService {
+
+    /**
+     * Key of the advisory lock held by the sequencer
+     */
+    private static final long SEQUENCER_LOCK_KEY = 0x50524f4443484e47L;
+
+    @Value("${product.changes.maxFeedSize}")
+    private int maxFeedSize;
+
+    @Value("${product.changes.batchSize}")
+    private int batchSize;
+
+    @Value("${product.changes.deletionRetentionHours}")
+    private long deletionRetentionHours;
+
+    private final ProductChangeRepository productChangeRepository;
+    private final ProductMapper productMapper;
+    private final CatalogueCache catalogueCache;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Records a product change. It must be called inside the transaction making the change.
+     */
+    public void recordChange(UUID productId, ProductChangeType changeType) {
+        productChangeRepository.appendChange(productId, changeType.name());
+        catalogueCache.invalidate();
+    }
+
+    /**
+     * Records the same change for all the products of a seller, e.g. when the seller
+     * is renamed. It must be called inside the transaction making the change.
+     */
+    public void recordSellerChange(UUID sellerId, ProductChangeType changeType) {
+        productChangeRepository.appendChangeForSeller(sellerId, changeType.name());
+        catalogueCache.invalidate();
+    }
+
+    /**
+     * Fetches the changes after the given sequence number, with the current state of the
+     * changed products. If deletions were compacted since that sequence number, no change
+     * is returned and the client has to read the whole catalogue again.
+     *
+     * @param after sequence number of the last change read by the client
+     * @param limit maximum number of changes, it's capped at the configured maximum feed size
+     */
+    public ProductChangeFeedDto getChanges(long after, int limit) {
+        if (after < productChangeRepository.findHorizon()) {
+            // the last sequence number is read before the client reads the catalogue
+            return new ProductChangeFeedDto(List.of(), productChangeRepository.findLastSeq(), true);
+        }
+
+        int feedSize = Math.max(1, Math.min(limit, maxFeedSize));
+        List<ProductChangeView> changeViews = productChangeRepository.findChangesAfter(after, feedSize);
+
+        List<ProductChangeDto> changes = new ArrayList<>(changeViews.size());
+        for (ProductChangeView changeView : changeViews) {
+            changes.add(productMapper.changeViewToDto(changeView));
+        }
+        long lastSeq = changes.isEmpty() ? after : changes.get(changes.size() - 1).getSeq();
+        return new ProductChangeFeedDto(changes, lastSeq, false);
+    }
+
+    /**
+     * Scheduled job to assign sequence numbers to the committed changes. Only one
+     * sequencer runs at a time, the others skip their run.
+     */
+    @Scheduled(fixedDelayString = "${product.changes.sequenceIntervalMillis}",
+            initialDelayString = "${product.changes.sequenceIntervalMillis}")
+    public void sequenceChanges() {
+        int sequenced;
+        do {
+            sequenced = transactionTemplate.execute(status -> productChangeRepository.tryLockSequencer(SEQUENCER_LOCK_KEY)
+                    ? productChangeRepository.sequenceChanges(batchSize)
+                    : 0);
+        } while (sequenced == batchSize);
+    }
+
+    /**
+     * Scheduled job to compact the change log. Every batch is removed in its own transaction.
+     */
+    @Scheduled(fixedDelayString = "${product.changes.compactIntervalMillis}",
+            initialDelayString = "${product.changes.compactIntervalMillis}")
+    public void compactChanges() {
+        int totalSuperseded = 0;
+        int superseded;
+        do {
+            superseded = transactionTemplate.execute(status -> productChangeRepository.removeSupersededChanges(batchSize));
+            totalSuperseded += superseded;
+        } while (superseded == batchSize);
+
+        Timestamp before = new Timestamp(System.currentTimeMillis() - Duration.ofHours(deletionRetentionHours).toMillis());
+        int totalDeletions = 0;
+        int deletions;
+        do {
+            deletions = transactionTemplate.execute(status -> productChangeRepository.removeDeletionsBefore(before, batchSize));
+            totalDeletions += deletions;
+        } while (deletions == batchSize);
+
+        if (totalSuperseded > 0 || totalDeletions > 0) {
+            log.info("Product change log compacted, {} superseded changes and {} deletions removed",
+                    totalSuperseded, totalDeletions);
+        }
+    }
+}
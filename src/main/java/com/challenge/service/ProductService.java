@@ -1,18 +1,27 @@
 package com.challenge.service;
 
+import com.challenge.catalogue.CatalogueCache;
+import com.challenge.catalogue.CataloguePage;
 import com.challenge.dto.product.DeleteProductDto;
 import com.challenge.dto.product.ProductDto;
+import com.challenge.dto.product.ProductPageDto;
+import com.challenge.dto.product.StockSlotsDto;
 import com.challenge.dto.product.UpdateProductDto;
 import com.challenge.entity.Product;
+import com.challenge.entity.ProductChangeType;
 import com.challenge.entity.User;
 import com.challenge.exception.ExceptionFactory;
 import com.challenge.exception.exceptions.ResourceNotFoundException;
 import com.challenge.mapper.ProductMapper;
 import com.challenge.repository.ProductRepository;
+import com.challenge.repository.projection.ProductStockView;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -28,9 +37,14 @@ public class ProductService {
      */
     private static final String PRODUCT_NOT_FOUND = "exception.resourceNotFound.productNotFound";
 
+    @Value("${product.catalogue.maxPageSize}")
+    private int maxPageSize;
+
     private final ProductRepository productRepository;
     private final UserService userService;
     private final ProductMapper productMapper;
+    private final CatalogueCache catalogueCache;
+    private final ProductChangeService productChangeService;
 
     /**
      * Finds a product by its id. Uses pessimistic locking.
@@ -41,11 +55,98 @@ public class ProductService {
     }
 
     /**
-     * Fetches all the products.
+     * Finds all the products with the given ids. Uses pessimistic locking
+     * and locks the products in a canonical order.
+     */
+    public List<Product> getProductsByIdsLocked(Collection<UUID> ids) {
+        List<Product> products = productRepository.findAllByIdPessimistic(ids);
+        if (products.size() != ids.size()) {
+            throw ExceptionFactory.create(ResourceNotFoundException.class, PRODUCT_NOT_FOUND);
+        }
+        return products;
+    }
+
+    /**
+     * Gets the number of stock slots the product's stock is split across.
+     */
+    public int getStockSlots(UUID id) {
+        return productRepository.findStockSlotsById(id)
+                .orElseThrow(() -> ExceptionFactory.create(ResourceNotFoundException.class, PRODUCT_NOT_FOUND));
+    }
+
+    /**
+     * Takes the amount from the product's stock slots. A free slot holding enough is tried
+     * first, then any slot holding enough. Only if no single slot holds the whole amount,
+     * all the slots are locked and the amount is gathered from them.
+     *
+     * @return false if the slots don't hold enough stock altogether
+     */
+    public boolean claimFromStockSlots(UUID productId, int amount) {
+        if (productRepository.subtractFromFreeStockSlot(productId, amount) == 1
+                || productRepository.subtractFromAnyStockSlot(productId, amount) == 1) {
+            return true;
+        }
+
+        List<Integer> slotAmounts = productRepository.findStockSlotAmountsLocked(productId);
+        if (slotAmounts.stream().mapToInt(Integer::intValue).sum() < amount) {
+            return false;
+        }
+
+        int remaining = amount;
+        for (int slot = 0; slot < slotAmounts.size() && remaining > 0; slot++) {
+            int taken = Math.min(remaining, slotAmounts.get(slot));
+            if (taken > 0) {
+                productRepository.subtractFromStockSlot(productId, slot, taken);
+                remaining -= taken;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the current version of the product catalogue, which changes whenever
+     * a product is created, updated, bought or deleted.
+     */
+    public long getCatalogueVersion() {
+        return catalogueCache.getVersion();
+    }
+
+    /**
+     * Checks if the catalogue pages are also kept gzipped.
+     */
+    public boolean isCatalogueGzipEnabled() {
+        return catalogueCache.isGzipEnabled();
+    }
+
+    /**
+     * Fetches a page of the products ordered by id. Pages are continued from the last id
+     * of the previous page instead of an offset, so every page costs the same however
+     * far the catalogue is read. No entity is loaded, and the page is only read and
+     * encoded again once the catalogue has changed.
+     *
+     * @param after id of the last product of the previous page, null for the first page
+     * @param limit page size, it's capped at the configured maximum page size
+     */
+    public CataloguePage getProductPage(UUID after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        return catalogueCache.getPage(after, pageSize, () -> readProductPage(after, pageSize));
+    }
+
+    /**
+     * Fetches all the products ordered by id, for the clients that don't page through
+     * the catalogue. Like the pages, it's only read and encoded again once the catalogue
+     * has changed.
      */
-    public List<ProductDto> getAllProducts() {
-        List<Product> products = productRepository.findAll();
-        return productMapper.allEntitiesToDtos(products);
+    public CataloguePage getWholeCatalogue() {
+        return catalogueCache.getPage(null, CatalogueCache.WHOLE_CATALOGUE, this::readWholeCatalogue);
+    }
+
+    /**
+     * Records a change of the product's stock made by a purchase.
+     * It must be called inside the purchase's transaction.
+     */
+    public void recordStockChange(UUID productId) {
+        productChangeService.recordChange(productId, ProductChangeType.STOCK_CHANGED);
     }
 
     /**
@@ -60,6 +161,7 @@ public class ProductService {
         product.setSeller(loggedInUser);
 
         productRepository.save(product);
+        productChangeService.recordChange(product.getId(), ProductChangeType.CREATED);
         return productMapper.entityToDto(product);
     }
 
@@ -69,15 +171,38 @@ public class ProductService {
      */
     @Transactional
     public ProductDto updateProduct(UpdateProductDto productDto) {
-        Product productToUpdate = findProductByIdForCurrentSeller(productDto.getId());
+        Product productToUpdate = lockProductForCurrentSeller(productDto.getId());
 
         productToUpdate.setProductName(productDto.getProductName());
-        productToUpdate.setAmountAvailable(productDto.getAmountAvailable());
         productToUpdate.setCost(productDto.getCost());
+        if (productToUpdate.isStriped()) {
+            distributeStock(productToUpdate, productToUpdate.getStockSlots(), productDto.getAmountAvailable());
+        } else {
+            productToUpdate.setAmountAvailable(productDto.getAmountAvailable());
+        }
+        productChangeService.recordChange(productToUpdate.getId(), ProductChangeType.UPDATED);
 
         return productMapper.entityToDto(productToUpdate);
     }
 
+    /**
+     * Splits the stock of a product owned by the currently logged in user across
+     * the given number of stock slots, so that concurrent buyers don't all wait
+     * for the same row. With 0 slots the whole stock is moved back to the product.
+     */
+    @Transactional
+    public ProductDto updateStockSlots(StockSlotsDto stockSlotsDto) {
+        Product product = lockProductForCurrentSeller(stockSlotsDto.getId());
+
+        int totalAmount = product.getAmountAvailable() + productRepository.findStockSlotAmountsLocked(product.getId())
+                .stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+        distributeStock(product, stockSlotsDto.getSlots(), totalAmount);
+
+        return productMapper.entityToDto(product);
+    }
+
     /**
      * Removes a product if its owned by the currently logged in user.
      */
@@ -85,6 +210,71 @@ public class ProductService {
     public void deleteProduct(DeleteProductDto productDto) {
         Product productToDelete = findProductByIdForCurrentSeller(productDto.getId());
         productRepository.deleteById(productToDelete.getId());
+        productChangeService.recordChange(productToDelete.getId(), ProductChangeType.DELETED);
+    }
+
+    /**
+     * Reads all the products as a single page without a next cursor.
+     */
+    private ProductPageDto readWholeCatalogue() {
+        List<ProductStockView> products = productRepository.findCatalogue();
+
+        List<ProductDto> catalogue = new ArrayList<>(products.size());
+        for (ProductStockView product : products) {
+            catalogue.add(productMapper.stockViewToDto(product));
+        }
+        return new ProductPageDto(catalogue, null);
+    }
+
+    /**
+     * Reads a page of the products, with one more product to know if there is a next page.
+     */
+    private ProductPageDto readProductPage(UUID after, int pageSize) {
+        List<ProductStockView> products = after == null
+                ? productRepository.findCataloguePage(pageSize + 1)
+                : productRepository.findCataloguePageAfter(after, pageSize + 1);
+
+        List<ProductDto> page = new ArrayList<>(Math.min(products.size(), pageSize));
+        for (int i = 0; i < products.size() && i < pageSize; i++) {
+            page.add(productMapper.stockViewToDto(products.get(i)));
+        }
+        UUID nextCursor = products.size() > pageSize ? page.get(pageSize - 1).getId() : null;
+        return new ProductPageDto(page, nextCursor);
+    }
+
+    /**
+     * Replaces the product's stock slots with the given number of slots holding
+     * the total amount. The amount is spread evenly across the slots.
+     */
+    private void distributeStock(Product product, int slots, int totalAmount) {
+        productRepository.deleteStockSlots(product.getId());
+        product.setStockSlots(slots);
+
+        if (slots == 0) {
+            product.setAmountAvailable(totalAmount);
+            product.setSlotStock(0);
+            return;
+        }
+
+        for (int slot = 0; slot < slots; slot++) {
+            int amount = totalAmount / slots + (slot < totalAmount % slots ? 1 : 0);
+            productRepository.insertStockSlot(product.getId(), slot, amount);
+        }
+        product.setAmountAvailable(0);
+        product.setSlotStock(totalAmount);
+    }
+
+    /**
+     * Same as {@link #findProductByIdForCurrentSeller(UUID)}, but the product is
+     * locked, so that its stock can't be changed concurrently.
+     */
+    private Product lockProductForCurrentSeller(UUID productId) {
+        UUID sellerId = userService.getAuthenticatedUserId();
+        Product product = getProductByIdLocked(productId);
+        if (!product.getSeller().getId().equals(sellerId)) {
+            throw ExceptionFactory.create(ResourceNotFoundException.class, PRODUCT_NOT_FOUND);
+        }
+        return product;
     }
 
     /**
@@ -95,8 +285,7 @@ public class ProductService {
      * @return the found product or throw exception
      */
     private Product findProductByIdForCurrentSeller(UUID productId) {
-        User loggedInUser = userService.getAuthenticatedUser();
-        return productRepository.findByIdAndSellerId(productId, loggedInUser.getId())
+        return productRepository.findByIdAndSellerId(productId, userService.getAuthenticatedUserId())
                 .orElseThrow(() -> ExceptionFactory.create(ResourceNotFoundException.class, PRODUCT_NOT_FOUND));
     }
 
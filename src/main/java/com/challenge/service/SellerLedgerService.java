@@ -0,0 +1,55 @@
+package com.challenge.service;
+
+import com.challenge.repository.SellerLedgerRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+
+/**
+ * Service class for the sellers' earnings. Purchases only append the earnings to the
+ * ledger, so the sellers' rows are not locked by every purchase. A scheduled job folds
+ * the ledger into the sellers' deposits. Reads of a user add the entries not yet folded,
+ * so the deposit is always exact.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SellerLedgerService {
+
+    @Value("${seller.ledger.foldBatchSize}")
+    private int foldBatchSize;
+
+    private final SellerLedgerRepository sellerLedgerRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Records a seller's earning. It must be called inside the purchase's transaction.
+     */
+    public void creditSeller(UUID sellerId, int amount) {
+        sellerLedgerRepository.appendCredit(sellerId, amount);
+    }
+
+    /**
+     * Scheduled job to fold the ledger into the sellers' deposits.
+     * Every batch is folded in its own transaction.
+     */
+    @Scheduled(fixedDelayString = "${seller.ledger.foldIntervalMillis}",
+            initialDelayString = "${seller.ledger.foldIntervalMillis}")
+    public void foldCredits() {
+        int totalFolded = 0;
+        int folded;
+        do {
+            folded = transactionTemplate.execute(status -> sellerLedgerRepository.foldCredits(foldBatchSize));
+            totalFolded += folded;
+        } while (folded == foldBatchSize);
+
+        if (totalFolded > 0) {
+            log.info("{} seller ledger entries have been folded into the sellers' deposits", totalFolded);
+        }
+    }
+}
@@ -1,24 +1,47 @@
 package com.challenge.service;
 
+import com.challenge.coin.CoinChange;
+import com.challenge.coin.CoinInventory;
+import com.challenge.dto.product.ProductDto;
 import com.challenge.dto.transaction.BuyTransactionResponseDto;
+import com.challenge.dto.transaction.CartItemDto;
+import com.challenge.dto.transaction.CartTransactionResponseDto;
 import com.challenge.dto.user.UserDto;
 import com.challenge.entity.Product;
-import com.challenge.entity.User;
+import com.challenge.escrow.DepositEscrow;
 import com.challenge.exception.ExceptionFactory;
 import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.exception.exceptions.ChangeNotAvailableException;
 import com.challenge.mapper.ProductMapper;
 import com.challenge.mapper.UserMapper;
+import com.challenge.repository.UserRepository;
+import com.challenge.repository.projection.UserDepositView;
+import com.challenge.service.purchase.BuyBatcher;
+import com.challenge.service.purchase.BuyMode;
+import com.challenge.service.purchase.ContentionTracker;
+import com.challenge.service.purchase.OptimisticRetryExecutor;
+import com.challenge.service.purchase.Purchase;
+import com.challenge.service.purchase.PurchaseStrategy;
+import com.challenge.service.purchase.StockLayoutChangedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
 import javax.transaction.Transactional;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Service class for logic related to a user's deposit account transactions
@@ -32,113 +55,269 @@ public class TransactionService {
      */
     private static final String INSUFFICIENT_FUNDS = "exception.buyTransaction.insufficientFunds";
     private static final String INSUFFICIENT_PRODUCT = "exception.buyTransaction.insufficientProduct";
+    private static final String CHANGE_NOT_AVAILABLE = "exception.changeNotAvailable.insufficientCoins";
+    private static final String CONCURRENT_MODIFICATION = "exception.buyTransaction.concurrentModification";
+    private static final String USERNAME_NOT_FOUND = "exception.authentication.usernameNoFound";
 
-    @Value("#{'${user.deposit.allowedCoins}'.split(',')}")
-    private final Set<Integer> allowedCoins;
+    @Value("${transaction.buy.mode}")
+    private BuyMode buyMode;
 
     private final UserService userService;
     private final ProductService productService;
+    private final SellerLedgerService sellerLedgerService;
+    private final UserRepository userRepository;
     private final UserMapper userMapper;
     private final ProductMapper productMapper;
+    private final CoinInventory coinInventory;
+    private final DepositEscrow depositEscrow;
+    private final List<PurchaseStrategy> purchaseStrategies;
+    private final OptimisticRetryExecutor optimisticRetryExecutor;
+    private final ContentionTracker contentionTracker;
+    private final BuyBatcher buyBatcher;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<BuyMode, PurchaseStrategy> strategiesByMode = new EnumMap<>(BuyMode.class);
+    private final Map<BuyMode, Timer> buyTimers = new EnumMap<>(BuyMode.class);
+    private Timer batchedBuyTimer;
 
     /**
-     * Sets the user's deposit to 0.
+     * Products last found with their stock split across stock slots
+     */
+    private final Set<UUID> stripedProducts = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void registerPurchaseStrategies() {
+        for (PurchaseStrategy purchaseStrategy : purchaseStrategies) {
+            strategiesByMode.put(purchaseStrategy.getMode(), purchaseStrategy);
+            buyTimers.put(purchaseStrategy.getMode(), meterRegistry.timer("vending.buy", "mode", purchaseStrategy.getMode().name()));
+        }
+        if (buyMode == BuyMode.STRIPED) {
+            throw new IllegalStateException("Striped buy mode is chosen per product and can't be configured");
+        }
+
+        List<BuyMode> requiredModes = buyMode == BuyMode.ADAPTIVE
+                ? List.of(BuyMode.OPTIMISTIC, BuyMode.PESSIMISTIC, BuyMode.STRIPED)
+                : List.of(buyMode, BuyMode.STRIPED);
+        for (BuyMode requiredMode : requiredModes) {
+            if (!strategiesByMode.containsKey(requiredMode)) {
+                throw new IllegalStateException("No purchase strategy found for buy mode: " + requiredMode);
+            }
+        }
+        batchedBuyTimer = meterRegistry.timer("vending.buy", "mode", "BATCHED");
+    }
+
+    /**
+     * Sets the user's deposit to 0. The deposit is paid back using the
+     * coins available in the machine.
      */
     @Transactional
     public UserDto resetUserDeposit() {
-        User user = userService.getAuthenticatedUser();
-        user.setDeposit(0);
-        return userMapper.entityToDto(user);
+        UUID userId = userService.getAuthenticatedUserId();
+        depositEscrow.flush(userId);
+        UserDepositView user = userRepository.resetDepositReturningUser(userId)
+                .orElseThrow(() -> ExceptionFactory.create(UsernameNotFoundException.class, USERNAME_NOT_FOUND, userId));
+        coinInventory.take(user.getDeposit())
+                .orElseThrow(() -> ExceptionFactory.create(ChangeNotAvailableException.class, CHANGE_NOT_AVAILABLE));
+        return userMapper.depositViewToDto(user, 0);
     }
 
     /**
-     * Adds money to the user's deposit if the coin is valid.
+     * Adds money to the user's deposit if the coin is valid. When the escrow is enabled,
+     * the coin is only escrowed and the user's row is not written.
+     *
+     * @param idempotent whether the deposit is made with an idempotency key, see {@link #addToDeposit}
      */
     @Transactional
-    public UserDto depositCoin(int amount) {
-        User user = userService.getAuthenticatedUser();
-        user.addToDepositAccount(amount);
-
-        return userMapper.entityToDto(user);
+    public UserDto depositCoin(int amount, boolean idempotent) {
+        UserDto user = addToDeposit(amount, idempotent);
+        coinInventory.deposit(amount);
+        return user;
     }
 
     /**
-     * Performs buy transaction by removing the bought amount from seller and
-     * removing the spent money from the buyer and adding it to the seller.
+     * Adds a batch of coins to the user's deposit. The coins must already be validated;
+     * their total is added with a single update, or escrowed as a single amount
+     * when the escrow is enabled.
+     *
+     * @param coins count of inserted coins of each denomination
+     * @param idempotent whether the deposit is made with an idempotency key, see {@link #addToDeposit}
      */
     @Transactional
-    public BuyTransactionResponseDto performBuyTransaction(UUID productId, int amountToBuy) {
-        Product product = productService.getProductByIdLocked(productId);
-        User buyer = userService.getAuthenticatedUser();
+    public UserDto depositCoins(Map<Integer, Integer> coins, boolean idempotent) {
+        int total = 0;
+        for (Map.Entry<Integer, Integer> coin : coins.entrySet()) {
+            total += coin.getKey() * coin.getValue();
+        }
 
-        int totalCost = product.getCost() * amountToBuy;
-        validateBuyTransaction(totalCost, product, buyer, amountToBuy);
+        UserDto user = addToDeposit(total, idempotent);
+        coins.forEach(coinInventory::deposit);
+        return user;
+    }
 
-        // perform transaction between seller and buyer
-        product.subtractFromAmountAvailable(amountToBuy);
-        product.getSeller().addToDepositAccount(totalCost);
-        int change = buyer.subtractFromDepositAccount(totalCost);
+    /**
+     * Adds the total of the inserted coins to the user's deposit,
+     * without loading the user entity.
+     * <p>
+     * A deposit made with an idempotency key is never escrowed. The escrow is changed outside
+     * of the transaction storing the key, so if that transaction failed, the retried deposit
+     * would be escrowed a second time.
+     */
+    private UserDto addToDeposit(int total, boolean idempotent) {
+        if (depositEscrow.isEnabled() && !idempotent) {
+            UserDepositView user = userService.getAuthenticatedUserDepositView();
+            int escrowedDeposit = depositEscrow.deposit(user.getId(), total);
+            return userMapper.depositViewToDto(user, user.getDeposit() + escrowedDeposit);
+        }
 
-        List<Integer> changeList = getChangeAsValidCoinsList(change);
-        return new BuyTransactionResponseDto(totalCost, productMapper.entityToDto(product), changeList);
+        UUID userId = userService.getAuthenticatedUserId();
+        UserDepositView user = userRepository.addToDepositReturningUser(userId, total)
+                .orElseThrow(() -> ExceptionFactory.create(UsernameNotFoundException.class, USERNAME_NOT_FOUND, userId));
+        return userMapper.depositViewToDto(user, user.getDeposit());
     }
 
     /**
-     * Validates buy transaction by checking the following conditions, which are not allowed:
-     * 1. More products are being bought than are available
-     * 2. The buyer doesn't have enough deposit to buy the requested product
+     * Performs buy transaction by removing the bought amount from seller and
+     * removing the spent money from the buyer and adding it to the seller.
+     * The way rows are locked depends on the configured {@link BuyMode}; in
+     * adaptive mode it is chosen per product by the {@link ContentionTracker}.
+     * Products whose stock is split across stock slots are always bought from the slots.
+     * When batching is enabled, the other products are bought through the {@link BuyBatcher}.
+     * Each attempt runs in its own transaction, so optimistic purchases
+     * can be retried on conflicts.
+     * <p>
+     * The idempotency key of the request is claimed in the transaction committing the buy.
+     * <p>
+     * The products known to be striped are routed to the slots, the others to the configured
+     * mode, without reading the product first. The purchase checks the route against the row
+     * it locks or updates; if the stock layout changed, it's rolled back and the product is
+     * bought through the other route.
      */
-    private void validateBuyTransaction(int totalCost, Product productToBuy, User buyer, int amountToBuy) {
-        if (productToBuy.getAmountAvailable() < amountToBuy) {
-            throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT);
-        } else if (buyer.getDeposit() - totalCost < 0) {
-            throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_FUNDS);
+    public BuyTransactionResponseDto performBuyTransaction(UUID productId, int amountToBuy, IdempotencyClaim idempotencyClaim) {
+        UUID buyerId = userService.getAuthenticatedUserId();
+        boolean striped = stripedProducts.contains(productId);
+        try {
+            return buyThroughRoute(productId, amountToBuy, buyerId, striped, idempotencyClaim);
+        } catch (StockLayoutChangedException ex) {
+            if (ex.isStriped()) {
+                stripedProducts.add(productId);
+            } else {
+                stripedProducts.remove(productId);
+            }
         }
+
+        try {
+            return buyThroughRoute(productId, amountToBuy, buyerId, !striped, idempotencyClaim);
+        } catch (StockLayoutChangedException ex) {
+            // the stock was split or merged again in the meantime
+            throw ExceptionFactory.create(BuyTransactionException.class, CONCURRENT_MODIFICATION);
+        }
+    }
+
+    private BuyTransactionResponseDto buyThroughRoute(UUID productId, int amountToBuy, UUID buyerId, boolean striped,
+                                                      IdempotencyClaim idempotencyClaim) {
+        BuyMode mode = striped ? BuyMode.STRIPED : selectBuyMode(productId);
+        if (mode != BuyMode.STRIPED && buyBatcher.isEnabled()) {
+            return batchedBuyTimer.record(() -> buyBatcher.buy(productId, amountToBuy, buyerId, idempotencyClaim));
+        }
+        PurchaseStrategy purchaseStrategy = strategiesByMode.get(mode);
+
+        Supplier<BuyTransactionResponseDto> attempt = () -> transactionTemplate.execute(status ->
+                buy(purchaseStrategy, productId, amountToBuy, buyerId, idempotencyClaim));
+
+        return buyTimers.get(mode).record(() -> mode == BuyMode.OPTIMISTIC
+                ? optimisticRetryExecutor.execute(productId, attempt)
+                : attempt.get());
+    }
+
+    private BuyMode selectBuyMode(UUID productId) {
+        return buyMode == BuyMode.ADAPTIVE ? contentionTracker.selectMode(productId) : buyMode;
     }
 
     /**
-     * Builds a list of all the valid coins. The sum of all the coins
-     * from the list is equal to the change.
-     *
-     * @param change sum of coins we want to reach
-     * @return list of valid coins adding up to the total change.
+     * Buys all the items of a cart in a single transaction. The products are locked
+     * in a canonical order, so concurrent carts always wait on each other instead of
+     * deadlocking. The buyer is charged once for the whole cart and gets one change,
+     * and every seller gets a single ledger entry.
      */
-    private List<Integer> getChangeAsValidCoinsList(int change) {
-        if (change != 0) {
-            // we order the allowed coins in descending order
-            List<Integer> validCoinsDescOrder = allowedCoins.stream()
-                    .sorted((v1, v2) -> Integer.compare(v2, v1))
-                    .collect(Collectors.toList());
-
-            List<Integer> changeList = new ArrayList<>();
-            int changeCounter = 0;
-
-            while (changeCounter != change) {
-                // find next valid coin from list and add it to the changeCounter and the changeList
-                int validCoin = findNextValidCoin(validCoinsDescOrder, changeCounter, change);
-                changeList.add(validCoin);
-                changeCounter += validCoin;
+    @Transactional
+    public CartTransactionResponseDto performCartTransaction(List<CartItemDto> items) {
+        UUID buyerId = userService.getAuthenticatedUserId();
+        depositEscrow.flush(buyerId);
+
+        // the same product may be found on several lines
+        Map<UUID, Integer> amountsToBuy = new HashMap<>();
+        for (CartItemDto item : items) {
+            amountsToBuy.merge(item.getProductId(), item.getAmount(), Integer::sum);
+        }
+
+        List<Product> products = productService.getProductsByIdsLocked(amountsToBuy.keySet());
+        Map<UUID, Integer> sellerEarnings = new HashMap<>();
+        List<ProductDto> boughtProducts = new ArrayList<>(products.size());
+        int totalCost = 0;
+
+        for (Product product : products) {
+            int amountToBuy = amountsToBuy.get(product.getId());
+            if (product.isStriped()) {
+                if (!productService.claimFromStockSlots(product.getId(), amountToBuy)) {
+                    throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT);
+                }
+                product.setSlotStock(product.getSlotStock() - amountToBuy);
+            } else if (product.getAmountAvailable() < amountToBuy) {
+                throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT);
+            } else {
+                product.subtractFromAmountAvailable(amountToBuy);
             }
 
-            return changeList;
+            productService.recordStockChange(product.getId());
+
+            int cost = product.getCost() * amountToBuy;
+            sellerEarnings.merge(product.getSeller().getId(), cost, Integer::sum);
+            boughtProducts.add(productMapper.entityToDto(product));
+            totalCost += cost;
+        }
+
+        int remainingDeposit = userRepository.subtractFromDeposit(buyerId, totalCost)
+                .orElseThrow(() -> ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_FUNDS));
+        sellerEarnings.forEach(sellerLedgerService::creditSeller);
+
+        CoinChange coinChange = getChange(remainingDeposit);
+        return new CartTransactionResponseDto(totalCost, boughtProducts, coinChange.toCoinList());
+    }
+
+    /**
+     * Runs a purchase strategy and calculates the change. It must be called inside
+     * a transaction, so that the purchase is rolled back if the change can't be given.
+     * The idempotency key is claimed first, so a concurrent retry of the same request waits for
+     * this one and then gets its response. The buyer's escrowed coins are added to the deposit,
+     * and the stock change is recorded in the product change log.
+     */
+    private BuyTransactionResponseDto buy(PurchaseStrategy purchaseStrategy, UUID productId, int amountToBuy, UUID buyerId,
+                                          IdempotencyClaim idempotencyClaim) {
+        if (!idempotencyClaim.claim()) {
+            throw new IdempotencyKeyClaimedException();
         }
+        depositEscrow.flush(buyerId);
+        Purchase purchase = purchaseStrategy.purchase(productId, amountToBuy, buyerId);
+        productService.recordStockChange(productId);
 
-        return Collections.emptyList();
+        CoinChange coinChange = getChange(purchase.getRemainingDeposit());
+        BuyTransactionResponseDto response = new BuyTransactionResponseDto(purchase.getTotalCost(), purchase.getProduct(),
+                coinChange.toCoinList());
+        idempotencyClaim.complete(response);
+        return response;
     }
 
     /**
-     * The method iterates through the ordered valid coins list and finds the
-     * first coin that meets the following condition: (coin + sumOfValidCoins) <= totalChange.
+     * Calculates the change as valid coins. The sum of all the coins is equal
+     * to the change. Only the coins available in the machine are used, so a
+     * purchase is rejected if its change could not be paid out.
      *
-     * @param validCoins      list of valid coins in descending order
-     * @param sumOfValidCoins sum of all valid coins found until current iteration
-     * @param totalChange     total change that we want to get after all iterations
-     * @return the next valid coin
+     * @param change sum of coins we want to reach
+     * @return change containing the count of each valid coin
      */
-    private int findNextValidCoin(List<Integer> validCoins, int sumOfValidCoins, int totalChange) {
-        return validCoins.stream()
-                .filter(coin -> (coin + sumOfValidCoins) <= totalChange)
-                .findFirst()
-                .orElseThrow(); // exception will not be thrown as there should always be a value
+    private CoinChange getChange(int change) {
+        return coinInventory.findChange(change)
+                .orElseThrow(() -> ExceptionFactory.create(ChangeNotAvailableException.class, CHANGE_NOT_AVAILABLE));
     }
 }
@@ -1,18 +1,30 @@
 package com.challenge.service;
 
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.challenge.dto.auth.AuthResponseDto;
 import com.challenge.entity.AuthEntry;
 import com.challenge.exception.ExceptionFactory;
-import com.challenge.exception.exceptions.ResourceNotFoundException;
+import com.challenge.exception.exceptions.InvalidTokenException;
 import com.challenge.repository.AuthEntryRepository;
+import com.challenge.repository.UserRepository;
+import com.challenge.security.AuthenticatedUser;
+import com.challenge.security.TokenRevocationIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
 import javax.transaction.Transactional;
 import java.sql.Timestamp;
 import java.util.Date;
-import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Service class for getting user auth related info.
@@ -25,56 +37,161 @@ public class UserAuthenticationService {
     /**
      * Error message keys
      */
-    private static final String TOKEN_NOT_FOUND = "exception.resourceNotFound.accessTokenNotFound";
+    private static final String INVALID_REFRESH_TOKEN = "exception.invalidToken.invalidRefreshToken";
+
+    @Value("${security.session.reaper.batchSize}")
+    private int reaperBatchSize;
+
+    @Value("${security.session.reaper.maxBatchesPerRun}")
+    private int reaperMaxBatchesPerRun;
+
+    @Value("${security.session.reaper.pauseMillis}")
+    private long reaperPauseMillis;
 
     private final AuthEntryRepository authEntryRepository;
+    private final UserRepository userRepository;
+    private final TokenRevocationIndex tokenRevocationIndex;
+    private final JWTService jwtService;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong sessionTableSize = new AtomicLong();
+    private Counter reapedCounter;
 
     /**
      * Checks if a username already has an active token
      */
     public boolean isUserAlreadyAuthenticated(String username) {
-        return authEntryRepository.findAllActiveAndNotExpired(username).size() != 0;
+        return authEntryRepository.existsActiveAndNotExpired(username);
     }
 
     /**
      * Saves a new log entry to the database
      */
     @Transactional
-    public void saveNewAuthentication(String username, String token, Date expirationDate) {
+    public void saveNewAuthentication(String username, UUID tokenId, Date expirationDate, int tokenEpoch) {
         AuthEntry authEntry = AuthEntry.builder()
                 .username(username)
-                .token(token)
+                .tokenId(tokenId)
                 .expirationDate(new Timestamp(expirationDate.getTime()))
                 .active(true)
+                .tokenEpoch(tokenEpoch)
                 .build();
         authEntryRepository.save(authEntry);
     }
 
     /**
-     * Checks if the token is still active.
+     * Starts a new session for the user. The access token is short-lived and trusted
+     * until it expires, only the refresh token is stored as an authentication entry.
+     *
+     * @return the new access and refresh tokens
      */
-    public boolean isTokenActive(String token) {
-        AuthEntry authEntry = authEntryRepository.findByToken(token)
-                .orElseThrow(() -> ExceptionFactory.create(ResourceNotFoundException.class, TOKEN_NOT_FOUND));
-        return authEntry.isActive();
+    @Transactional
+    public AuthResponseDto startSession(UUID userId, String username, String role, int tokenEpoch, String requestURL) {
+        String accessToken = jwtService.generateToken(userId, username, role, tokenEpoch, requestURL);
+        String refreshToken = jwtService.generateRefreshToken(userId, username, role, tokenEpoch, requestURL);
+        saveNewAuthentication(username, jwtService.getTokenId(refreshToken),
+                jwtService.getTokenExpiration(refreshToken), tokenEpoch);
+        return new AuthResponseDto(null, accessToken, refreshToken);
     }
 
+    /**
+     * Renews the user's tokens. The session of the refresh token is ended and a new one
+     * is started, so every refresh token can only be used once. This is the only check
+     * of the sessions in the database, so the session table is queried once per refresh
+     * instead of once per request.
+     *
+     * @return the new access and refresh tokens
+     */
     @Transactional
-    public void deactivateAuthentication(String username) {
-        List<AuthEntry> authEntries = authEntryRepository.findAllActiveAndNotExpired(username);
-        for (AuthEntry authEntry : authEntries) {
-            authEntry.setActive(false);
+    public AuthResponseDto refreshSession(String refreshToken, String requestURL) {
+        AuthenticatedUser user;
+        UUID tokenId;
+        int tokenEpoch;
+        try {
+            DecodedJWT decodedJWT = jwtService.verifyRefreshToken(refreshToken);
+            if (decodedJWT.getId() == null) {
+                throw ExceptionFactory.create(InvalidTokenException.class, INVALID_REFRESH_TOKEN);
+            }
+            user = jwtService.getUserInfoFromToken(decodedJWT);
+            tokenId = UUID.fromString(decodedJWT.getId());
+            tokenEpoch = jwtService.getTokenEpoch(decodedJWT);
+        } catch (JWTVerificationException | IllegalArgumentException ex) {
+            throw ExceptionFactory.create(InvalidTokenException.class, INVALID_REFRESH_TOKEN);
+        }
+
+        if (authEntryRepository.deactivateActiveSession(tokenId, user.getId()) == 0) {
+            throw ExceptionFactory.create(InvalidTokenException.class, INVALID_REFRESH_TOKEN);
+        }
+        return startSession(user.getId(), user.getUsername(), user.getRole().name(), tokenEpoch, requestURL);
+    }
+
+    /**
+     * Checks if a verified token is still active. Only the in-memory
+     * {@link TokenRevocationIndex} is checked, the database is not queried.
+     */
+    public boolean isTokenActive(UUID userId, String tokenId, int tokenEpoch) {
+        if (tokenId == null) {
+            return false;
         }
-        log.info("All tokens have been deactivated for user: {}", username);
+        return !tokenRevocationIndex.isRevoked(userId, tokenEpoch);
     }
 
     /**
-     * Scheduled job to clean up db from all expired authentication logs
+     * Deactivates all the tokens of the user by incrementing the user's token epoch,
+     * however many tokens the user has. The cached epoch is invalidated right away,
+     * so the tokens are rejected by the next request.
      */
-    @Scheduled(cron = "${cron.authEntry.cleanUp}")
     @Transactional
-    public void removeAllExpiredEntries() {
-        authEntryRepository.removeAllExpired();
-        log.info("Cleanup job for expired tokens ran successfully");
+    public void deactivateAuthentication(UUID userId) {
+        tokenRevocationIndex.invalidateTokenEpoch(userId);
+        userRepository.incrementTokenEpoch(userId);
+        log.info("All tokens have been deactivated for user: {}", userId);
+    }
+
+    /**
+     * Scheduled job to clean up db from the expired authentication logs. The entries are
+     * deleted in small batches, each in its own transaction, with a pause between the
+     * batches, so that the deletion never holds many locks or writes a burst of WAL.
+     * A run stops after a bounded number of batches, the next run continues.
+     */
+    @Scheduled(fixedDelayString = "${security.session.reaper.intervalMillis}",
+            initialDelayString = "${security.session.reaper.intervalMillis}")
+    public void removeExpiredEntries() {
+        int totalReaped = 0;
+        for (int batch = 0; batch < reaperMaxBatchesPerRun; batch++) {
+            int reaped = transactionTemplate.execute(status -> authEntryRepository.removeExpired(reaperBatchSize));
+            totalReaped += reaped;
+            if (reaped < reaperBatchSize || !pauseReaper()) {
+                break;
+            }
+        }
+
+        reapedCounter.increment(totalReaped);
+        sessionTableSize.set(authEntryRepository.estimateCount());
+        if (totalReaped > 0) {
+            log.info("Cleanup job removed {} expired tokens", totalReaped);
+        }
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        reapedCounter = meterRegistry.counter("vending.sessions.reaped");
+        meterRegistry.gauge("vending.sessions.table.size", sessionTableSize);
+    }
+
+    /**
+     * Waits between two batches of the cleanup job.
+     *
+     * @return false if the job was interrupted and should stop
+     */
+    private boolean pauseReaper() {
+        try {
+            Thread.sleep(reaperPauseMillis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 }
@@ -2,6 +2,7 @@ package com.challenge.service;
 
 import com.challenge.dto.user.UpdateUserDto;
 import com.challenge.dto.user.UserDto;
+import com.challenge.entity.ProductChangeType;
 import com.challenge.entity.Role;
 import com.challenge.entity.User;
 import com.challenge.exception.ExceptionFactory;
@@ -9,6 +10,8 @@ import com.challenge.exception.exceptions.PasswordMatchException;
 import com.challenge.exception.exceptions.UsernameAlreadyExistsException;
 import com.challenge.mapper.UserMapper;
 import com.challenge.repository.UserRepository;
+import com.challenge.repository.projection.UserDepositView;
+import com.challenge.security.AuthenticatedUser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.Authentication;
@@ -21,6 +24,7 @@ import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Service class for user related logic
@@ -42,6 +46,7 @@ public class UserService implements UserDetailsService {
     private final PasswordEncoder passwordEncoder;
     private final RoleService roleService;
     private final UserMapper userMapper;
+    private final ProductChangeService productChangeService;
 
     /**
      * Method used by Spring Security for authentication. It finds
@@ -53,12 +58,51 @@ public class UserService implements UserDetailsService {
     }
 
     /**
-     * Fetches the currently logged in user.
+     * Gets the currently logged in user from the security context. The user's id, username
+     * and role come from the verified JWT, so this doesn't query the database.
      */
-    public User getAuthenticatedUser() {
+    public AuthenticatedUser getAuthenticatedPrincipal() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = (String) authentication.getPrincipal();
-        return getUserByUsername(username);
+        return (AuthenticatedUser) authentication.getPrincipal();
+    }
+
+    /**
+     * Fetches the currently logged in user. Only the user's row is loaded, its role
+     * and products are loaded lazily, so it should only be used when the entity itself is needed.
+     */
+    public User getAuthenticatedUser() {
+        return getUserById(getAuthenticatedUserId());
+    }
+
+    /**
+     * Gets the username of the currently logged in user.
+     */
+    public String getAuthenticatedUsername() {
+        return getAuthenticatedPrincipal().getUsername();
+    }
+
+    /**
+     * Gets the id of the currently logged in user.
+     */
+    public UUID getAuthenticatedUserId() {
+        return getAuthenticatedPrincipal().getId();
+    }
+
+    /**
+     * Fetches the deposit details of the currently logged in user without loading the user's products.
+     */
+    public UserDepositView getAuthenticatedUserDepositView() {
+        UUID id = getAuthenticatedUserId();
+        return userRepository.findDepositViewById(id)
+                .orElseThrow(() -> ExceptionFactory.create(UsernameNotFoundException.class, USERNAME_NOT_FOUND, id));
+    }
+
+    /**
+     * Finds a user by its id.
+     */
+    public User getUserById(UUID id) {
+        return userRepository.findById(id)
+                .orElseThrow(() -> ExceptionFactory.create(UsernameNotFoundException.class, USERNAME_NOT_FOUND, id));
     }
 
     /**
@@ -84,10 +128,10 @@ public class UserService implements UserDetailsService {
     }
 
     /**
-     * Fetches all the users.
+     * Fetches all the users with their products.
      */
     public List<UserDto> getAllUsers() {
-        List<User> users = userRepository.findAll();
+        List<User> users = userRepository.findAllWithRoleAndProducts();
         return userMapper.allEntitiesToDtos(users);
     }
 
@@ -103,11 +147,13 @@ public class UserService implements UserDetailsService {
         User user = getAuthenticatedUser();
         Role role = roleService.getRoleByName(userDto.getNewRole());
 
-        // set new username and deactivate all access tokens for old one
-        String oldUsername = user.getUsername();
+        // set new username and role, and revoke the user's tokens by bumping the token epoch
         user.setUsername(userDto.getNewUsername());
         user.setRole(role);
-        userAuthenticationService.deactivateAuthentication(oldUsername);
+        userAuthenticationService.deactivateAuthentication(user.getId());
+
+        // the username is shown as the seller of the user's products
+        productChangeService.recordSellerChange(user.getId(), ProductChangeType.UPDATED);
 
         return userMapper.entityToDto(user);
     }
@@ -123,7 +169,7 @@ public class UserService implements UserDetailsService {
         // check if oldPassword matches the currently saved password of the user
         if (passwordEncoder.matches(oldPassword, user.getPassword())) {
             user.setPassword(passwordEncoder.encode(newPassword));
-            userAuthenticationService.deactivateAuthentication(user.getUsername());
+            userAuthenticationService.deactivateAuthentication(user.getId());
         } else {
             throw ExceptionFactory.create(PasswordMatchException.class, PASSWORDS_NOT_MATCH);
         }
@@ -134,17 +180,17 @@ public class UserService implements UserDetailsService {
      */
     @Transactional
     public void deleteUser() {
-        User user = getAuthenticatedUser();
-        userRepository.deleteById(user.getId());
-        userAuthenticationService.deactivateAuthentication(user.getUsername());
+        UUID userId = getAuthenticatedUserId();
+        userAuthenticationService.deactivateAuthentication(userId);
+        productChangeService.recordSellerChange(userId, ProductChangeType.DELETED);
+        userRepository.deleteById(userId);
     }
 
     /**
      * Deactivates all tokens for the current user.
      */
     public void logoutAuthenticatedUserFromAllSessions() {
-        User user = getAuthenticatedUser();
-        userAuthenticationService.deactivateAuthentication(user.getUsername());
+        userAuthenticationService.deactivateAuthentication(getAuthenticatedUserId());
     }
 
     /**
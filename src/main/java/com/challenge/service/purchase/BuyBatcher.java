@@ -0,0 +1,306 @@
+package com.challenge.service.purchase;
+
+import com.challenge.coin.CoinChange;
+import com.challenge.coin.CoinInventory;
+import com.challenge.dto.transaction.BuyTransactionResponseDto;
+import com.challenge.entity.Product;
+import com.challenge.escrow.DepositEscrow;
+import com.challenge.exception.ExceptionFactory;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.exception.exceptions.ChangeNotAvailableException;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.UserRepository;
+import com.challenge.service.IdempotencyClaim;
+import com.challenge.service.IdempotencyKeyClaimedException;
+import com.challenge.service.ProductService;
+import com.challenge.service.SellerLedgerService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups concurrent buys of the same product and applies them in a single transaction,
+ * so the product row is locked once per batch instead of once per buy.
+ * <p>
+ * The first buyer of a product opens a batch and waits while a batch of the same product
+ * is running, for at most the window, or until the batch fills up. Then it closes the batch
+ * and runs it on its own thread, while the other buyers of the batch wait for their results.
+ * So a buy that nothing is queued behind runs right away, and the buys arriving while the
+ * product is locked are applied together. The buys are applied in the order of their buyers'
+ * ids, so that concurrent batches lock the buyers' rows in the same order instead of
+ * deadlocking. A buy that fails doesn't affect the others of the batch.
+ * <p>
+ * Every buy claims its idempotency key in the batch's transaction, and gives it back
+ * if it fails, as the transaction still commits.
+ */
+@Component
+public class BuyBatcher {
+
+    /**
+     * Error message keys
+     */
+    private static final String INSUFFICIENT_FUNDS = "exception.buyTransaction.insufficientFunds";
+    private static final String INSUFFICIENT_PRODUCT = "exception.buyTransaction.insufficientProduct";
+    private static final String CHANGE_NOT_AVAILABLE = "exception.changeNotAvailable.insufficientCoins";
+
+    private final ProductService productService;
+    private final UserRepository userRepository;
+    private final SellerLedgerService sellerLedgerService;
+    private final CoinInventory coinInventory;
+    private final DepositEscrow depositEscrow;
+    private final ProductMapper productMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    @Getter
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final DistributionSummary batchSizes;
+    private final DistributionSummary batchFill;
+
+    private final Map<UUID, Batch> openBatches = new ConcurrentHashMap<>();
+
+    /**
+     * Product id -> number of batches of the product being run
+     */
+    private final Map<UUID, Integer> runningBatches = new ConcurrentHashMap<>();
+
+    public BuyBatcher(ProductService productService,
+                      UserRepository userRepository,
+                      SellerLedgerService sellerLedgerService,
+                      CoinInventory coinInventory,
+                      DepositEscrow depositEscrow,
+                      ProductMapper productMapper,
+                      TransactionTemplate transactionTemplate,
+                      MeterRegistry meterRegistry,
+                      @Value("${transaction.buy.batching.enabled}") boolean enabled,
+                      @Value("${transaction.buy.batching.windowMillis}") long windowMillis,
+                      @Value("${transaction.buy.batching.maxBatchSize}") int maxBatchSize) {
+        this.productService = productService;
+        this.userRepository = userRepository;
+        this.sellerLedgerService = sellerLedgerService;
+        this.coinInventory = coinInventory;
+        this.depositEscrow = depositEscrow;
+        this.productMapper = productMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizes = DistributionSummary.builder("vending.buy.batch.size")
+                .description("Number of buys applied in a single transaction")
+                .register(meterRegistry);
+        this.batchFill = DistributionSummary.builder("vending.buy.batch.fill")
+                .description("Batch size relative to the maximum batch size")
+                .baseUnit("ratio")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Buys the product as part of a batch and waits for the result. The exception of
+     * this particular buy is thrown if it failed.
+     */
+    public BuyTransactionResponseDto buy(UUID productId, int amountToBuy, UUID buyerId, IdempotencyClaim idempotencyClaim) {
+        BuyRequest request = new BuyRequest(amountToBuy, buyerId, idempotencyClaim);
+        Batch batch = join(productId, request);
+
+        if (batch.isLeader(request)) {
+            batch.awaitClosing(productId);
+            openBatches.remove(productId, batch);
+            runningBatches.merge(productId, 1, Integer::sum);
+            try {
+                run(productId, batch.getRequests());
+            } finally {
+                runningBatches.computeIfPresent(productId, (id, running) -> running == 1 ? null : running - 1);
+                // the next batch doesn't have to wait for this one anymore
+                Batch nextBatch = openBatches.get(productId);
+                if (nextBatch != null) {
+                    nextBatch.wakeUp();
+                }
+            }
+        }
+
+        try {
+            return request.result.join();
+        } catch (CompletionException ex) {
+            throw (RuntimeException) ex.getCause();
+        }
+    }
+
+    /**
+     * Adds the request to the product's open batch, opening a new batch if there is none.
+     */
+    private Batch join(UUID productId, BuyRequest request) {
+        while (true) {
+            Batch batch = openBatches.computeIfAbsent(productId, id -> new Batch());
+            if (batch.add(request)) {
+                return batch;
+            }
+            // the batch was closed but its leader didn't remove it yet
+            openBatches.remove(productId, batch);
+        }
+    }
+
+    /**
+     * Applies all the requests in one transaction and completes their results.
+     * If the transaction itself fails, all the requests fail with its exception.
+     */
+    private void run(UUID productId, List<BuyRequest> requests) {
+        batchSizes.record(requests.size());
+        batchFill.record((double) requests.size() / maxBatchSize);
+
+        try {
+            List<Runnable> completions = transactionTemplate.execute(status -> apply(productId, requests));
+            completions.forEach(Runnable::run);
+        } catch (RuntimeException ex) {
+            requests.forEach(request -> request.result.completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * Validates and applies the requests in the order of their buyers' ids. The results are only
+     * completed once the transaction commits, so the completions are returned to the caller.
+     */
+    private List<Runnable> apply(UUID productId, List<BuyRequest> requests) {
+        Product product = productService.getProductByIdLocked(productId);
+        if (product.isStriped()) {
+            throw new StockLayoutChangedException(true);
+        }
+        List<BuyRequest> requestsByBuyer = new ArrayList<>(requests);
+        requestsByBuyer.sort(Comparator.comparing(request -> request.buyerId));
+        List<Runnable> completions = new ArrayList<>(requests.size());
+        int sellerEarnings = 0;
+
+        for (BuyRequest request : requestsByBuyer) {
+            if (!request.idempotencyClaim.claim()) {
+                completions.add(failure(request, new IdempotencyKeyClaimedException()));
+                continue;
+            }
+
+            int totalCost = product.getCost() * request.amountToBuy;
+            if (product.getAmountAvailable() < request.amountToBuy) {
+                completions.add(rejection(request, ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT)));
+                continue;
+            }
+
+            depositEscrow.flush(request.buyerId);
+            Optional<Integer> remainingDeposit = userRepository.subtractFromDeposit(request.buyerId, totalCost);
+            if (remainingDeposit.isEmpty()) {
+                completions.add(rejection(request, ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_FUNDS)));
+                continue;
+            }
+
+            Optional<CoinChange> coinChange = coinInventory.findChange(remainingDeposit.get());
+            if (coinChange.isEmpty()) {
+                // give the money back, the rest of the batch must still go through
+                userRepository.addToDeposit(request.buyerId, totalCost);
+                completions.add(rejection(request, ExceptionFactory.create(ChangeNotAvailableException.class, CHANGE_NOT_AVAILABLE)));
+                continue;
+            }
+
+            product.subtractFromAmountAvailable(request.amountToBuy);
+            sellerEarnings += totalCost;
+
+            BuyTransactionResponseDto response = new BuyTransactionResponseDto(totalCost,
+                    productMapper.entityToDto(product), coinChange.get().toCoinList());
+            request.idempotencyClaim.complete(response);
+            completions.add(() -> request.result.complete(response));
+        }
+
+        if (sellerEarnings > 0) {
+            sellerLedgerService.creditSeller(product.getSeller().getId(), sellerEarnings);
+            productService.recordStockChange(productId);
+        }
+        return completions;
+    }
+
+    /**
+     * Fails a buy that claimed its idempotency key, giving the key back as nothing is bought.
+     */
+    private Runnable rejection(BuyRequest request, RuntimeException ex) {
+        request.idempotencyClaim.release();
+        return failure(request, ex);
+    }
+
+    private Runnable failure(BuyRequest request, RuntimeException ex) {
+        return () -> request.result.completeExceptionally(ex);
+    }
+
+    /**
+     * A single buy waiting in a batch
+     */
+    @RequiredArgsConstructor
+    private static class BuyRequest {
+
+        private final int amountToBuy;
+        private final UUID buyerId;
+        private final IdempotencyClaim idempotencyClaim;
+        private final CompletableFuture<BuyTransactionResponseDto> result = new CompletableFuture<>();
+    }
+
+    /**
+     * Buys of a product collected during one window. The first request is the leader.
+     */
+    private class Batch {
+
+        private final List<BuyRequest> requests = new ArrayList<>();
+        private final long openedAt = System.nanoTime();
+        private boolean closed;
+
+        synchronized boolean add(BuyRequest request) {
+            if (closed) {
+                return false;
+            }
+
+            requests.add(request);
+            if (requests.size() >= maxBatchSize) {
+                closed = true;
+                notifyAll();
+            }
+            return true;
+        }
+
+        synchronized boolean isLeader(BuyRequest request) {
+            return requests.get(0) == request;
+        }
+
+        /**
+         * Waits until no batch of the product is running, the window passes
+         * or the batch fills up, then closes the batch.
+         */
+        synchronized void awaitClosing(UUID productId) {
+            long remaining = windowNanos - (System.nanoTime() - openedAt);
+            try {
+                while (!closed && remaining > 0 && runningBatches.containsKey(productId)) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    remaining = windowNanos - (System.nanoTime() - openedAt);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            closed = true;
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        synchronized List<BuyRequest> getRequests() {
+            return requests;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.challenge.service.purchase;
+
+/**
+ * Ways of performing a buy transaction
+ */
+public enum BuyMode {
+
+    /**
+     * The product row is locked with SELECT ... FOR UPDATE and the
+     * entities are updated through dirty checking.
+     */
+    PESSIMISTIC,
+
+    /**
+     * Stock and deposits are moved with guarded UPDATE ... RETURNING
+     * statements, so a row is locked only for a single statement.
+     */
+    CONDITIONAL,
+
+    /**
+     * Nothing is locked up front. The versioned entities are updated through
+     * dirty checking and the transaction is retried if a concurrent update
+     * is detected at commit.
+     */
+    OPTIMISTIC,
+
+    /**
+     * Each product is bought either optimistically or pessimistically,
+     * depending on how contended it has recently been.
+     *
+     * @see ContentionTracker
+     */
+    ADAPTIVE,
+
+    /**
+     * The amount is claimed from one of the product's stock slots. Used for
+     * every product whose stock is split across slots, whatever the
+     * configured mode is, so it can't be configured itself.
+     */
+    STRIPED
+}
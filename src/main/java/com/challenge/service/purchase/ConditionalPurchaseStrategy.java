@@ -0,0 +1,68 @@
+package com.challenge.service.purchase;
+
+import com.challenge.exception.ExceptionFactory;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.exception.exceptions.ResourceNotFoundException;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.ProductRepository;
+import com.challenge.repository.UserRepository;
+import com.challenge.repository.projection.ProductStockView;
+import com.challenge.service.SellerLedgerService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Purchase strategy that checks and moves the stock and the buyer's deposit with guarded
+ * UPDATE ... RETURNING statements. No entity is loaded and every row is locked only
+ * for the duration of its statement. If a later step fails, the transaction is rolled
+ * back and the earlier updates are undone.
+ */
+@Component
+@RequiredArgsConstructor
+public class ConditionalPurchaseStrategy implements PurchaseStrategy {
+
+    /**
+     * Error message keys
+     */
+    private static final String INSUFFICIENT_FUNDS = "exception.buyTransaction.insufficientFunds";
+    private static final String INSUFFICIENT_PRODUCT = "exception.buyTransaction.insufficientProduct";
+    private static final String PRODUCT_NOT_FOUND = "exception.resourceNotFound.productNotFound";
+
+    private final ProductRepository productRepository;
+    private final UserRepository userRepository;
+    private final ProductMapper productMapper;
+    private final SellerLedgerService sellerLedgerService;
+
+    @Override
+    public BuyMode getMode() {
+        return BuyMode.CONDITIONAL;
+    }
+
+    @Override
+    public Purchase purchase(UUID productId, int amountToBuy, UUID buyerId) {
+        ProductStockView product = productRepository.subtractFromAmountAvailable(productId, amountToBuy)
+                .orElseThrow(() -> rejection(productId));
+
+        int totalCost = product.getCost() * amountToBuy;
+        int remainingDeposit = userRepository.subtractFromDeposit(buyerId, totalCost)
+                .orElseThrow(() -> ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_FUNDS));
+        sellerLedgerService.creditSeller(UUID.fromString(product.getSellerId()), totalCost);
+
+        return new Purchase(totalCost, productMapper.stockViewToDto(product), remainingDeposit);
+    }
+
+    /**
+     * Finds out why the stock could not be subtracted. Only a rejected purchase reads the product again.
+     */
+    private RuntimeException rejection(UUID productId) {
+        Integer stockSlots = productRepository.findStockSlotsById(productId).orElse(null);
+        if (stockSlots == null) {
+            return ExceptionFactory.create(ResourceNotFoundException.class, PRODUCT_NOT_FOUND);
+        }
+        return stockSlots > 0
+                ? new StockLayoutChangedException(true)
+                : ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT);
+    }
+}
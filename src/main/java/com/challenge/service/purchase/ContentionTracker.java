@@ -0,0 +1,268 @@
+package com.challenge.service.purchase;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the recent contention of each product and decides which buy mode should be
+ * used for it. Products start in {@link BuyMode#OPTIMISTIC} mode and move to
+ * {@link BuyMode#PESSIMISTIC} when too many optimistic attempts conflict. While locked
+ * pessimistically, conflicts can't be observed anymore, so a product moves back once the
+ * time spent waiting for its lock becomes short. The two signals use separate thresholds
+ * and every mode is kept for a minimum time, so products don't flap between modes.
+ * <p>
+ * The statistics are exponentially weighted moving averages. A measured lock wait also
+ * contains the round trip of the locking query, so the uncontended baseline, the lowest
+ * recent measurement across all the products, is subtracted from it. Only a bounded number
+ * of products is tracked; the least recently bought ones are forgotten first.
+ * <p>
+ * Nothing is tracked unless the configured buy mode is {@link BuyMode#ADAPTIVE}.
+ */
+@Slf4j
+@Component
+public class ContentionTracker {
+
+    /**
+     * Weight of the newest sample in the moving averages
+     */
+    private static final double ALPHA = 0.1;
+
+    /**
+     * Number of mode changes kept in the history
+     */
+    private static final int HISTORY_SIZE = 200;
+
+    /**
+     * Weight of a measurement above the baseline, so that the baseline slowly follows
+     * the round trip when it gets longer
+     */
+    private static final double BASELINE_ALPHA = 0.01;
+
+    private final boolean enabled;
+    private final double conflictRateThreshold;
+    private final double lockWaitThresholdMillis;
+    private final long minDwellNanos;
+    private final int maxTrackedProducts;
+
+    /**
+     * Tracked products in access order, guarded by itself
+     */
+    private final Map<UUID, ProductContention> contentions;
+    private final Deque<ModeChange> history = new ArrayDeque<>(HISTORY_SIZE);
+
+    /**
+     * Uncontended lock wait in milliseconds
+     */
+    private double baselineMillis = Double.NaN;
+    private final Object baselineLock = new Object();
+
+    public ContentionTracker(@Value("${transaction.buy.mode}") BuyMode buyMode,
+                             @Value("${transaction.buy.adaptive.conflictRateThreshold}") double conflictRateThreshold,
+                             @Value("${transaction.buy.adaptive.lockWaitThresholdMillis}") double lockWaitThresholdMillis,
+                             @Value("${transaction.buy.adaptive.minDwellMillis}") long minDwellMillis,
+                             @Value("${transaction.buy.adaptive.maxTrackedProducts}") int maxTrackedProducts) {
+        this.enabled = buyMode == BuyMode.ADAPTIVE;
+        this.conflictRateThreshold = conflictRateThreshold;
+        this.lockWaitThresholdMillis = lockWaitThresholdMillis;
+        this.minDwellNanos = TimeUnit.MILLISECONDS.toNanos(minDwellMillis);
+        this.maxTrackedProducts = maxTrackedProducts;
+        this.contentions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, ProductContention> eldest) {
+                return size() > maxTrackedProducts;
+            }
+        };
+    }
+
+    /**
+     * Whether the contention is tracked, i.e. the buy mode is chosen per product
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the buy mode that should be used for the next purchase of the product.
+     */
+    public BuyMode selectMode(UUID productId) {
+        ProductContention contention;
+        synchronized (contentions) {
+            contention = contentions.get(productId);
+        }
+        return contention == null ? BuyMode.OPTIMISTIC : contention.getMode();
+    }
+
+    /**
+     * Records the outcome of an optimistic purchase attempt.
+     */
+    public void recordOptimisticAttempt(UUID productId, boolean conflicted) {
+        if (!enabled) {
+            return;
+        }
+        getOrCreate(productId).recordAttempt(conflicted);
+    }
+
+    /**
+     * Records the time spent waiting for a product's pessimistic lock, including the
+     * round trip of the locking query.
+     */
+    public void recordLockWait(UUID productId, long waitNanos) {
+        if (!enabled) {
+            return;
+        }
+        double waitMillis = waitNanos / 1_000_000d;
+        getOrCreate(productId).recordLockWait(Math.max(0, waitMillis - updateBaseline(waitMillis)));
+    }
+
+    /**
+     * Gets the current state of all the tracked products.
+     */
+    public List<ProductContentionState> getCurrentStates() {
+        List<ProductContention> tracked;
+        synchronized (contentions) {
+            tracked = new ArrayList<>(contentions.values());
+        }
+        List<ProductContentionState> states = new ArrayList<>(tracked.size());
+        tracked.forEach(contention -> states.add(contention.toState()));
+        return states;
+    }
+
+    /**
+     * Gets the latest mode changes, newest first.
+     */
+    public List<ModeChange> getHistory() {
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    /**
+     * Gets the product's statistics, starting to track it if needed. The least recently
+     * used product is forgotten when too many are tracked.
+     */
+    private ProductContention getOrCreate(UUID productId) {
+        synchronized (contentions) {
+            return contentions.computeIfAbsent(productId, ProductContention::new);
+        }
+    }
+
+    /**
+     * Updates the uncontended baseline with a measured lock wait and returns it. It drops
+     * to a shorter measurement at once, while a longer one only raises it a little, so
+     * contended measurements barely move it.
+     */
+    private double updateBaseline(double waitMillis) {
+        synchronized (baselineLock) {
+            if (Double.isNaN(baselineMillis) || waitMillis < baselineMillis) {
+                baselineMillis = waitMillis;
+            } else {
+                baselineMillis += BASELINE_ALPHA * (waitMillis - baselineMillis);
+            }
+            return baselineMillis;
+        }
+    }
+
+    private void recordModeChange(ModeChange modeChange) {
+        log.info("Buy mode of product: {} changed from {} to {}",
+                modeChange.getProductId(), modeChange.getFrom(), modeChange.getTo());
+        synchronized (history) {
+            if (history.size() == HISTORY_SIZE) {
+                history.removeLast();
+            }
+            history.addFirst(modeChange);
+        }
+    }
+
+    /**
+     * Contention statistics of a single product
+     */
+    private class ProductContention {
+
+        private final UUID productId;
+        private BuyMode mode = BuyMode.OPTIMISTIC;
+        private long modeSinceNanos = System.nanoTime();
+        private double conflictRate;
+        private double lockWaitMillis;
+
+        ProductContention(UUID productId) {
+            this.productId = productId;
+        }
+
+        synchronized BuyMode getMode() {
+            return mode;
+        }
+
+        synchronized void recordAttempt(boolean conflicted) {
+            conflictRate += ALPHA * ((conflicted ? 1 : 0) - conflictRate);
+            if (mode == BuyMode.OPTIMISTIC && conflictRate > conflictRateThreshold && canChangeMode()) {
+                changeMode(BuyMode.PESSIMISTIC);
+            }
+        }
+
+        synchronized void recordLockWait(double waitMillis) {
+            lockWaitMillis += ALPHA * (waitMillis - lockWaitMillis);
+            if (mode == BuyMode.PESSIMISTIC && lockWaitMillis < lockWaitThresholdMillis && canChangeMode()) {
+                changeMode(BuyMode.OPTIMISTIC);
+            }
+        }
+
+        synchronized ProductContentionState toState() {
+            return new ProductContentionState(productId, mode, conflictRate, lockWaitMillis);
+        }
+
+        private boolean canChangeMode() {
+            return System.nanoTime() - modeSinceNanos >= minDwellNanos;
+        }
+
+        private void changeMode(BuyMode newMode) {
+            recordModeChange(new ModeChange(productId, mode, newMode, conflictRate, lockWaitMillis, Instant.now()));
+
+            mode = newMode;
+            modeSinceNanos = System.nanoTime();
+            // the signal that caused the change is reset, so it has to build up again
+            conflictRate = 0;
+            lockWaitMillis = newMode == BuyMode.PESSIMISTIC ? lockWaitThresholdMillis * 2 : 0;
+        }
+    }
+
+    /**
+     * Snapshot of a tracked product
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ProductContentionState {
+
+        private final UUID productId;
+        private final BuyMode mode;
+        private final double conflictRate;
+        private final double lockWaitMillis;
+    }
+
+    /**
+     * A buy mode change of a product and the statistics that caused it
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ModeChange {
+
+        private final UUID productId;
+        private final BuyMode from;
+        private final BuyMode to;
+        private final double conflictRate;
+        private final double lockWaitMillis;
+        private final Instant changedAt;
+    }
+}
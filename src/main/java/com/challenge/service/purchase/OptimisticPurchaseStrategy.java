@@ -0,0 +1,75 @@
+package com.challenge.service.purchase;
+
+import com.challenge.entity.Product;
+import com.challenge.entity.User;
+import com.challenge.exception.ExceptionFactory;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.exception.exceptions.ResourceNotFoundException;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.ProductRepository;
+import com.challenge.service.SellerLedgerService;
+import com.challenge.service.UserService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Purchase strategy that doesn't lock anything up front. The product and the buyer
+ * are versioned, so a concurrent update of any of them fails the commit with an
+ * optimistic locking failure. Retrying is left to the caller, as it needs a new transaction.
+ */
+@Component
+@RequiredArgsConstructor
+public class OptimisticPurchaseStrategy implements PurchaseStrategy {
+
+    /**
+     * Error message keys
+     */
+    private static final String INSUFFICIENT_FUNDS = "exception.buyTransaction.insufficientFunds";
+    private static final String INSUFFICIENT_PRODUCT = "exception.buyTransaction.insufficientProduct";
+    private static final String PRODUCT_NOT_FOUND = "exception.resourceNotFound.productNotFound";
+
+    private final ProductRepository productRepository;
+    private final UserService userService;
+    private final ProductMapper productMapper;
+    private final SellerLedgerService sellerLedgerService;
+
+    @Override
+    public BuyMode getMode() {
+        return BuyMode.OPTIMISTIC;
+    }
+
+    @Override
+    public Purchase purchase(UUID productId, int amountToBuy, UUID buyerId) {
+        Product product = productRepository.findById(productId)
+                .orElseThrow(() -> ExceptionFactory.create(ResourceNotFoundException.class, PRODUCT_NOT_FOUND));
+        if (product.isStriped()) {
+            throw new StockLayoutChangedException(true);
+        }
+        User buyer = userService.getUserById(buyerId);
+
+        int totalCost = product.getCost() * amountToBuy;
+        validateBuyTransaction(totalCost, product, buyer, amountToBuy);
+
+        // perform transaction between seller and buyer
+        product.subtractFromAmountAvailable(amountToBuy);
+        sellerLedgerService.creditSeller(product.getSeller().getId(), totalCost);
+        int remainingDeposit = buyer.subtractFromDepositAccount(totalCost);
+
+        return new Purchase(totalCost, productMapper.entityToDto(product), remainingDeposit);
+    }
+
+    /**
+     * Validates buy transaction by checking the following conditions, which are not allowed:
+     * 1. More products are being bought than are available
+     * 2. The buyer doesn't have enough deposit to buy the requested product
+     */
+    private void validateBuyTransaction(int totalCost, Product productToBuy, User buyer, int amountToBuy) {
+        if (productToBuy.getAmountAvailable() < amountToBuy) {
+            throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT);
+        } else if (buyer.getDeposit() - totalCost < 0) {
+            throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_FUNDS);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.challenge.service.purchase;
+
+import com.challenge.exception.ExceptionFactory;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.OptimisticLockException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Runs an optimistic purchase attempt and retries it when a concurrent update is
+ * detected. Every retry waits a random time up to an exponentially growing limit
+ * (full jitter), so that the conflicting buyers spread out instead of colliding again.
+ */
+@Slf4j
+@Component
+public class OptimisticRetryExecutor {
+
+    /**
+     * Error message keys
+     */
+    private static final String CONCURRENT_MODIFICATION = "exception.buyTransaction.concurrentModification";
+
+    /**
+     * Upper limit for the backoff, no matter how many attempts were made
+     */
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private final ContentionTracker contentionTracker;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final Counter attempts;
+    private final Counter conflicts;
+    private final Counter retries;
+    private final Counter exhausted;
+
+    public OptimisticRetryExecutor(MeterRegistry meterRegistry,
+                                   ContentionTracker contentionTracker,
+                                   @Value("${transaction.buy.optimistic.maxAttempts}") int maxAttempts,
+                                   @Value("${transaction.buy.optimistic.backoffMillis}") long backoffMillis) {
+        this.contentionTracker = contentionTracker;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.attempts = meterRegistry.counter("vending.buy.optimistic.attempts");
+        this.conflicts = meterRegistry.counter("vending.buy.optimistic.conflicts");
+        this.retries = meterRegistry.counter("vending.buy.optimistic.retries");
+        this.exhausted = meterRegistry.counter("vending.buy.optimistic.exhausted");
+    }
+
+    /**
+     * Runs the attempt, which must start and commit its own transaction.
+     * A {@link BuyTransactionException} is thrown when all the attempts conflicted.
+     * The outcome of every attempt is reported to the {@link ContentionTracker}.
+     */
+    public <T> T execute(UUID productId, Supplier<T> attempt) {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            attempts.increment();
+            try {
+                T result = attempt.get();
+                contentionTracker.recordOptimisticAttempt(productId, false);
+                return result;
+            } catch (OptimisticLockingFailureException | OptimisticLockException ex) {
+                conflicts.increment();
+                contentionTracker.recordOptimisticAttempt(productId, true);
+                if (attemptNumber >= maxAttempts) {
+                    exhausted.increment();
+                    log.warn("Buy transaction failed after {} conflicting attempts", attemptNumber);
+                    throw ExceptionFactory.create(BuyTransactionException.class, CONCURRENT_MODIFICATION);
+                }
+
+                retries.increment();
+                backOff(attemptNumber);
+            }
+        }
+    }
+
+    private void backOff(int attemptNumber) {
+        long limit = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attemptNumber - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw ExceptionFactory.create(BuyTransactionException.class, CONCURRENT_MODIFICATION);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.challenge.service.purchase;
+
+import com.challenge.entity.Product;
+import com.challenge.exception.ExceptionFactory;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.UserRepository;
+import com.challenge.service.ProductService;
+import com.challenge.service.SellerLedgerService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Purchase strategy that locks the product row for the whole transaction.
+ * The buyer's deposit is moved with a guarded update, as the users' rows are not locked,
+ * and the seller's earning is appended to the seller ledger.
+ */
+@Component
+@RequiredArgsConstructor
+public class PessimisticPurchaseStrategy implements PurchaseStrategy {
+
+    /**
+     * Error message keys
+     */
+    private static final String INSUFFICIENT_FUNDS = "exception.buyTransaction.insufficientFunds";
+    private static final String INSUFFICIENT_PRODUCT = "exception.buyTransaction.insufficientProduct";
+
+    private final ProductService productService;
+    private final UserRepository userRepository;
+    private final ProductMapper productMapper;
+    private final SellerLedgerService sellerLedgerService;
+    private final ContentionTracker contentionTracker;
+
+    @Override
+    public BuyMode getMode() {
+        return BuyMode.PESSIMISTIC;
+    }
+
+    @Override
+    public Purchase purchase(UUID productId, int amountToBuy, UUID buyerId) {
+        Product product;
+        if (contentionTracker.isEnabled()) {
+            long lockStart = System.nanoTime();
+            product = productService.getProductByIdLocked(productId);
+            contentionTracker.recordLockWait(productId, System.nanoTime() - lockStart);
+        } else {
+            product = productService.getProductByIdLocked(productId);
+        }
+        if (product.isStriped()) {
+            throw new StockLayoutChangedException(true);
+        }
+
+        if (product.getAmountAvailable() < amountToBuy) {
+            throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT);
+        }
+
+        // perform transaction between seller and buyer
+        int totalCost = product.getCost() * amountToBuy;
+        int remainingDeposit = userRepository.subtractFromDeposit(buyerId, totalCost)
+                .orElseThrow(() -> ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_FUNDS));
+        product.subtractFromAmountAvailable(amountToBuy);
+        sellerLedgerService.creditSeller(product.getSeller().getId(), totalCost);
+
+        return new Purchase(totalCost, productMapper.entityToDto(product), remainingDeposit);
+    }
+}
@@ -0,0 +1,17 @@
+package com.challenge.service.purchase;
+
+import com.challenge.dto.product.ProductDto;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of a successful purchase
+ */
+@Getter
+@AllArgsConstructor
+public class Purchase {
+
+    private final int totalCost;
+    private final ProductDto product;
+    private final int remainingDeposit;
+}
@@ -0,0 +1,21 @@
+package com.challenge.service.purchase;
+
+import java.util.UUID;
+
+/**
+ * Moves the bought amount from the product's stock and the spent money from the
+ * buyer to the seller. Implementations run inside the caller's transaction.
+ */
+public interface PurchaseStrategy {
+
+    /**
+     * The buy mode implemented by the strategy
+     */
+    BuyMode getMode();
+
+    /**
+     * Performs the purchase. A {@link com.challenge.exception.exceptions.BuyTransactionException}
+     * is thrown if there is not enough product or deposit available.
+     */
+    Purchase purchase(UUID productId, int amountToBuy, UUID buyerId);
+}
@@ -0,0 +1,23 @@
+package com.challenge.service.purchase;
+
+import lombok.Getter;
+
+/**
+ * Thrown by a purchase that finds the product's stock laid out differently than its
+ * route expected: split across stock slots, or not anymore. Nothing was bought yet,
+ * so the transaction is rolled back and the product is bought through the other route.
+ */
+@Getter
+public class StockLayoutChangedException extends RuntimeException {
+
+    /**
+     * Whether the product's stock is split across stock slots
+     */
+    private final boolean striped;
+
+    public StockLayoutChangedException(boolean striped) {
+        super(striped ? "Product stock is split across stock slots" : "Product stock is not split across stock slots",
+                null, false, false);
+        this.striped = striped;
+    }
+}
@@ -0,0 +1,62 @@
+package com.challenge.service.purchase;
+
+import com.challenge.exception.ExceptionFactory;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.exception.exceptions.ResourceNotFoundException;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.ProductRepository;
+import com.challenge.repository.UserRepository;
+import com.challenge.repository.projection.ProductStockView;
+import com.challenge.service.ProductService;
+import com.challenge.service.SellerLedgerService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Purchase strategy for products whose stock is split across stock slots. The amount
+ * is claimed from a single slot, so the product row itself is never locked and
+ * concurrent buyers of the same product only wait for each other if they pick the same slot.
+ */
+@Component
+@RequiredArgsConstructor
+public class StripedPurchaseStrategy implements PurchaseStrategy {
+
+    /**
+     * Error message keys
+     */
+    private static final String INSUFFICIENT_FUNDS = "exception.buyTransaction.insufficientFunds";
+    private static final String INSUFFICIENT_PRODUCT = "exception.buyTransaction.insufficientProduct";
+    private static final String PRODUCT_NOT_FOUND = "exception.resourceNotFound.productNotFound";
+
+    private final ProductService productService;
+    private final ProductRepository productRepository;
+    private final UserRepository userRepository;
+    private final ProductMapper productMapper;
+    private final SellerLedgerService sellerLedgerService;
+
+    @Override
+    public BuyMode getMode() {
+        return BuyMode.STRIPED;
+    }
+
+    @Override
+    public Purchase purchase(UUID productId, int amountToBuy, UUID buyerId) {
+        if (!productService.claimFromStockSlots(productId, amountToBuy)) {
+            if (productService.getStockSlots(productId) == 0) {
+                throw new StockLayoutChangedException(false);
+            }
+            throw ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_PRODUCT);
+        }
+        ProductStockView product = productRepository.findStockViewById(productId)
+                .orElseThrow(() -> ExceptionFactory.create(ResourceNotFoundException.class, PRODUCT_NOT_FOUND));
+
+        int totalCost = product.getCost() * amountToBuy;
+        int remainingDeposit = userRepository.subtractFromDeposit(buyerId, totalCost)
+                .orElseThrow(() -> ExceptionFactory.create(BuyTransactionException.class, INSUFFICIENT_FUNDS));
+        sellerLedgerService.creditSeller(UUID.fromString(product.getSellerId()), totalCost);
+
+        return new Purchase(totalCost, productMapper.stockViewToDto(product), remainingDeposit);
+    }
+}
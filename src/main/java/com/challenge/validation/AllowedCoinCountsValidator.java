@@ -0,0 +1,38 @@
+package com.challenge.validation;
+
+import com.challenge.coin.CoinRegistry;
+import com.challenge.validation.constraints.AllowedCoinCounts;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.validator.internal.engine.constraintvalidation.ConstraintValidatorContextImpl;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+import java.util.Arrays;
+import java.util.Map;
+
+@RequiredArgsConstructor
+public class AllowedCoinCountsValidator implements ConstraintValidator<AllowedCoinCounts, Map<Integer, Integer>> {
+
+    private final CoinRegistry coinRegistry;
+
+    @Override
+    public void initialize(AllowedCoinCounts constraintAnnotation) {
+        ConstraintValidator.super.initialize(constraintAnnotation);
+    }
+
+    @Override
+    public boolean isValid(Map<Integer, Integer> value, ConstraintValidatorContext context) {
+        if (value == null) {
+            return true;
+        }
+
+        for (Integer coin : value.keySet()) {
+            if (coin == null || !coinRegistry.isAllowed(coin)) {
+                ((ConstraintValidatorContextImpl) context).addMessageParameter("allowedCoins",
+                        Arrays.toString(coinRegistry.getDenominations()));
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,17 +1,18 @@
 package com.challenge.validation;
 
+import com.challenge.coin.CoinRegistry;
 import com.challenge.validation.constraints.AllowedCoin;
+import lombok.RequiredArgsConstructor;
 import org.hibernate.validator.internal.engine.constraintvalidation.ConstraintValidatorContextImpl;
-import org.springframework.beans.factory.annotation.Value;
 
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
-import java.util.Set;
+import java.util.Arrays;
 
+@RequiredArgsConstructor
 public class AllowedCoinValidator implements ConstraintValidator<AllowedCoin, Integer> {
 
-    @Value("#{'${user.deposit.allowedCoins}'.split(',')}")
-    private Set<Integer> allowedCoins;
+    private final CoinRegistry coinRegistry;
 
     @Override
     public void initialize(AllowedCoin constraintAnnotation) {
@@ -20,10 +21,11 @@ public class AllowedCoinValidator implements ConstraintValidator<AllowedCoin, In
 
     @Override
     public boolean isValid(Integer value, ConstraintValidatorContext context) {
-        if (value != null & allowedCoins.contains(value)) {
+        if (value != null && coinRegistry.isAllowed(value)) {
             return true;
         } else {
-            ((ConstraintValidatorContextImpl) context).addMessageParameter("allowedCoins", allowedCoins);
+            ((ConstraintValidatorContextImpl) context).addMessageParameter("allowedCoins",
+                    Arrays.toString(coinRegistry.getDenominations()));
             return false;
         }
     }
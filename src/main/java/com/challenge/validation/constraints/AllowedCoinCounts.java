@@ -0,0 +1,27 @@
+package com.challenge.validation.constraints;
+
+import com.challenge.validation.AllowedCoinCountsValidator;
+
+import javax.validation.Constraint;
+import javax.validation.Payload;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Checks that every key of a coin to count map is an allowed coin.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Constraint(validatedBy = AllowedCoinCountsValidator.class)
+public @interface AllowedCoinCounts {
+
+    String message() default "{validation.allowedCoins}";
+
+    Class<?>[] groups() default {};
+
+    Class<? extends Payload>[] payload() default {};
+}
@@ -0,0 +1,2 @@
+ALTER TABLE t_user
+    ADD COLUMN escrow_seq BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,5 @@
+ALTER TABLE t_user
+    ADD COLUMN token_epoch INTEGER NOT NULL DEFAULT 0;
+
+ALTER TABLE t_authentication
+    ADD COLUMN token_epoch INTEGER NOT NULL DEFAULT 0;
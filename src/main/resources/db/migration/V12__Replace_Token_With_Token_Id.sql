@@ -0,0 +1,21 @@
+ALTER TABLE t_authentication
+    ADD COLUMN token_id UUID;
+
+-- the token id is the jti claim found in the token's base64url encoded payload
+UPDATE t_authentication
+SET token_id = CAST(CAST(convert_from(decode(
+        rpad(translate(split_part(token, '.', 2), '-_', '+/'),
+             CAST(ceil(length(split_part(token, '.', 2)) / 4.0) * 4 AS INTEGER), '='),
+        'base64'), 'UTF8') AS JSON) ->> 'jti' AS UUID);
+
+-- tokens issued without an id are not accepted anymore
+DELETE FROM t_authentication WHERE token_id IS NULL;
+
+ALTER TABLE t_authentication
+    DROP COLUMN token,
+    ALTER COLUMN token_id SET NOT NULL,
+    ADD CONSTRAINT authentication_token_id_uq UNIQUE (token_id);
+
+CREATE INDEX idx_authentication_active_username
+    ON t_authentication (username, token_epoch, expiration_date)
+    WHERE active;
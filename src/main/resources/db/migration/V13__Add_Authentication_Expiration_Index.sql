@@ -0,0 +1,2 @@
+CREATE INDEX idx_authentication_expiration_date
+    ON t_authentication (expiration_date);
@@ -0,0 +1,26 @@
+CREATE SEQUENCE product_change_seq;
+
+-- entries are appended by the transactions changing products and get their
+-- sequence number from the sequencer once committed, so they are numbered in commit order
+CREATE TABLE t_product_change (
+    id                  BIGSERIAL PRIMARY KEY,
+    seq                 BIGINT UNIQUE,
+    product_id          UUID NOT NULL,
+    change_type         VARCHAR NOT NULL,
+    created_at          TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX idx_product_change_unsequenced ON t_product_change (id) WHERE seq IS NULL;
+CREATE INDEX idx_product_change_product_id ON t_product_change (product_id, seq);
+
+-- feeds read from before this sequence number may miss compacted deletions
+CREATE TABLE t_product_change_horizon (
+    id                  INTEGER PRIMARY KEY CHECK (id = 1),
+    seq                 BIGINT NOT NULL
+);
+
+INSERT INTO t_product_change_horizon (id, seq) VALUES (1, 0);
+
+-- the existing products are the first entries of the feed
+INSERT INTO t_product_change (seq, product_id, change_type)
+SELECT nextval('product_change_seq'), id, 'CREATED' FROM t_product ORDER BY id;
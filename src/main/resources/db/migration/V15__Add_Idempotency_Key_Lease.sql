@@ -0,0 +1,9 @@
+-- the digest of the requests made before can't be computed anymore,
+-- so their keys can't be reused until they expire
+ALTER TABLE t_idempotency_key
+    DROP COLUMN request_hash,
+    ADD COLUMN request_digest VARCHAR NOT NULL DEFAULT '',
+    ADD COLUMN lease_expires_at TIMESTAMP;
+
+ALTER TABLE t_idempotency_key
+    ALTER COLUMN request_digest DROP DEFAULT;
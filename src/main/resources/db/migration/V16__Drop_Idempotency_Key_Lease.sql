@@ -0,0 +1,3 @@
+-- the keys of the buys are claimed in the transaction committing the buy, like the others
+ALTER TABLE t_idempotency_key
+    DROP COLUMN lease_expires_at;
@@ -0,0 +1,5 @@
+-- the rows are inserted at startup with the initial count of the configured coins
+CREATE TABLE t_coin_inventory (
+    coin                INTEGER PRIMARY KEY,
+    coin_count          INTEGER NOT NULL
+);
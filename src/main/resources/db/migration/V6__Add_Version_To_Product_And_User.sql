@@ -0,0 +1,5 @@
+ALTER TABLE t_product
+    ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE t_user
+    ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,9 @@
+ALTER TABLE t_product
+    ADD COLUMN stock_slots INTEGER NOT NULL DEFAULT 0;
+
+CREATE TABLE t_product_stock_slot (
+    product_id          UUID NOT NULL REFERENCES t_product (id) ON DELETE CASCADE,
+    slot                INTEGER NOT NULL,
+    amount              INTEGER NOT NULL DEFAULT 0 CHECK (amount >= 0),
+    PRIMARY KEY (product_id, slot)
+);
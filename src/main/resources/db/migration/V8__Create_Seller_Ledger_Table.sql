@@ -0,0 +1,8 @@
+CREATE TABLE t_seller_ledger (
+    id                  BIGSERIAL PRIMARY KEY,
+    seller_id           UUID NOT NULL REFERENCES t_user (id) ON DELETE CASCADE,
+    amount              INTEGER NOT NULL CHECK (amount > 0),
+    created_at          TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX idx_seller_ledger_seller_id ON t_seller_ledger (seller_id);
@@ -0,0 +1,12 @@
+CREATE TABLE t_idempotency_key (
+    id                  UUID PRIMARY KEY,
+    username            VARCHAR NOT NULL,
+    idempotency_key     VARCHAR NOT NULL,
+    operation           VARCHAR NOT NULL,
+    request_hash        INTEGER NOT NULL,
+    response_body       VARCHAR,
+    created_at          TIMESTAMP NOT NULL DEFAULT now(),
+    UNIQUE (username, idempotency_key)
+);
+
+CREATE INDEX idx_idempotency_key_created_at ON t_idempotency_key (created_at);
@@ -0,0 +1,90 @@
+package com.challenge.benchmark;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.challenge.entity.RoleType;
+import com.challenge.security.AuthenticatedUser;
+import com.challenge.service.JWTService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of verifying the access token of a request. The baseline builds the algorithm
+ * and the verifier for every request, the way {@link JWTService} used to.
+ * <p>
+ * Run it with the main method; the GC profiler reports the allocation rate
+ * ({@code gc.alloc.rate.norm} is the number of bytes allocated per request).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JWTVerificationBenchmark {
+
+    private static final String SECRET = "jwt_secret";
+    private static final String ROLE_CLAIM = "roles";
+    private static final String TOKEN_PREFIX = "Bearer ";
+
+    private JWTService jwtService;
+    private String bearerToken;
+
+    @Setup
+    public void setup() {
+        jwtService = new JWTService();
+        ReflectionTestUtils.setField(jwtService, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtService, "claim", ROLE_CLAIM);
+        ReflectionTestUtils.setField(jwtService, "tokenExpirationInHours", 4);
+        jwtService.initVerifier();
+
+        bearerToken = TOKEN_PREFIX + jwtService.generateToken(UUID.randomUUID(), "buyer",
+                RoleType.ROLE_BUYER.name(), 0, "/api/login");
+    }
+
+    @Benchmark
+    public void verifierPerRequest(Blackhole blackhole) {
+        // the token was stripped of its prefix once to decode it and once more to check if it's active
+        String token = bearerToken.substring(TOKEN_PREFIX.length());
+        Algorithm algorithm = Algorithm.HMAC256(SECRET.getBytes());
+        JWTVerifier jwtVerifier = JWT.require(algorithm).build();
+        DecodedJWT decodedJWT = jwtVerifier.verify(token);
+
+        blackhole.consume(decodedJWT.getSubject());
+        blackhole.consume(decodedJWT.getClaim(ROLE_CLAIM).as(String.class));
+        blackhole.consume(bearerToken.substring(TOKEN_PREFIX.length()));
+    }
+
+    @Benchmark
+    public AuthenticatedUser cachedVerifier() {
+        DecodedJWT decodedJWT = jwtService.verifyToken(bearerToken);
+        return jwtService.getUserInfoFromToken(decodedJWT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JWTVerificationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
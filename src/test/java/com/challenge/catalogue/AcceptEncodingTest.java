@@ -0,0 +1,40 @@
+package com.challenge.catalogue;
+
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AcceptEncodingTest {
+
+    @Test
+    @DisplayName("Gzip should be accepted when it's listed without a zero quality")
+    public void acceptsGzip_listed() {
+        assertThat(AcceptEncoding.acceptsGzip("gzip")).isTrue();
+        assertThat(AcceptEncoding.acceptsGzip("deflate, GZIP;q=0.5, br")).isTrue();
+        assertThat(AcceptEncoding.acceptsGzip("x-gzip")).isTrue();
+    }
+
+    @Test
+    @DisplayName("Gzip should be refused when its quality is zero, even if the wildcard accepts it")
+    public void acceptsGzip_refused() {
+        assertThat(AcceptEncoding.acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("br, gzip ; q=0.0, *")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("identity")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip(null)).isFalse();
+    }
+
+    @Test
+    @DisplayName("The wildcard's quality should apply when gzip isn't listed")
+    public void acceptsGzip_wildcard() {
+        assertThat(AcceptEncoding.acceptsGzip("br, *")).isTrue();
+        assertThat(AcceptEncoding.acceptsGzip("br, *;q=0")).isFalse();
+    }
+
+    @Test
+    @DisplayName("A coding with a malformed quality should be ignored")
+    public void acceptsGzip_malformedQuality() {
+        assertThat(AcceptEncoding.acceptsGzip("gzip;q=high")).isFalse();
+        assertThat(AcceptEncoding.acceptsGzip("gzip;q=2, *;q=0.1")).isTrue();
+    }
+}
@@ -0,0 +1,87 @@
+package com.challenge.catalogue;
+
+import com.challenge.dto.product.ProductDto;
+import com.challenge.dto.product.ProductPageDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CatalogueCacheTest {
+
+    private static final UUID PRODUCT_ID = UUID.fromString("00000000-1000-0000-0000-000000000000");
+
+    @Test
+    @DisplayName("A page should only be read once while the catalogue doesn't change")
+    public void getPage_cached() {
+        var catalogueCache = new CatalogueCache(new ObjectMapper(), 10, false);
+        var reads = new AtomicInteger();
+
+        var firstPage = catalogueCache.getPage(null, 2, countingLoader(reads));
+        var secondPage = catalogueCache.getPage(null, 2, countingLoader(reads));
+
+        assertThat(reads.get()).isEqualTo(1);
+        assertThat(secondPage).isSameAs(firstPage);
+        assertThat(firstPage.getVersion()).isEqualTo(catalogueCache.getVersion());
+    }
+
+    @Test
+    @DisplayName("Invalidating the catalogue should increment the version and read the pages again")
+    public void invalidate_successfully() {
+        var catalogueCache = new CatalogueCache(new ObjectMapper(), 10, false);
+        var reads = new AtomicInteger();
+        var after = UUID.randomUUID();
+
+        var page = catalogueCache.getPage(after, 2, countingLoader(reads));
+        catalogueCache.invalidate();
+        var reloadedPage = catalogueCache.getPage(after, 2, countingLoader(reads));
+
+        assertThat(reads.get()).isEqualTo(2);
+        assertThat(reloadedPage.getVersion()).isEqualTo(page.getVersion() + 1);
+    }
+
+    @Test
+    @DisplayName("Pages should not be cached above the maximum number of entries")
+    public void getPage_cacheFull() {
+        var catalogueCache = new CatalogueCache(new ObjectMapper(), 1, false);
+        var reads = new AtomicInteger();
+
+        catalogueCache.getPage(null, 2, countingLoader(reads));
+        catalogueCache.getPage(null, 3, countingLoader(reads));
+        catalogueCache.getPage(null, 3, countingLoader(reads));
+
+        assertThat(reads.get()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("A page should be encoded as the JSON of its products and gzipped")
+    public void getPage_encoded() throws IOException {
+        var objectMapper = new ObjectMapper();
+        var catalogueCache = new CatalogueCache(objectMapper, 10, true);
+
+        var page = catalogueCache.getPage(null, 2, countingLoader(new AtomicInteger()));
+
+        var products = objectMapper.readValue(page.getJson(), ProductDto[].class);
+        assertThat(products).hasSize(1);
+        assertThat(products[0].getId()).isEqualTo(PRODUCT_ID);
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(page.getGzippedJson()))) {
+            assertThat(gzip.readAllBytes()).isEqualTo(page.getJson());
+        }
+    }
+
+    private Supplier<ProductPageDto> countingLoader(AtomicInteger reads) {
+        return () -> {
+            reads.incrementAndGet();
+            return new ProductPageDto(List.of(ProductDto.builder().id(PRODUCT_ID).productName("PRODUCT_1").cost(10).build()), null);
+        };
+    }
+}
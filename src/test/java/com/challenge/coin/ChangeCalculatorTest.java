@@ -0,0 +1,88 @@
+package com.challenge.coin;
+
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangeCalculatorTest {
+
+    @Test
+    @DisplayName("Change should use the minimum number of allowed coins")
+    public void calculate_canonicalCoins() {
+        var changeCalculator = new ChangeCalculator(new CoinRegistry(Set.of(5, 10, 20, 50, 100)));
+
+        var change = changeCalculator.calculate(75).orElseThrow();
+
+        assertThat(change.toCoinList()).containsExactly(50, 20, 5);
+        assertThat(change.getTotal()).isEqualTo(75);
+    }
+
+    @Test
+    @DisplayName("Zero change should not contain any coins")
+    public void calculate_zeroChange() {
+        var changeCalculator = new ChangeCalculator(new CoinRegistry(Set.of(5, 10, 20, 50, 100)));
+
+        var change = changeCalculator.calculate(0).orElseThrow();
+
+        assertThat(change.getCoinCount()).isEqualTo(0);
+        assertThat(change.toCoinList()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Large amounts should be reduced with the largest coin")
+    public void calculate_largeAmount() {
+        var changeCalculator = new ChangeCalculator(new CoinRegistry(Set.of(5, 10, 20, 50, 100)));
+
+        var change = changeCalculator.calculate(1_000_085).orElseThrow();
+
+        assertThat(change.getCount(0)).isEqualTo(10_000);
+        assertThat(change.getCoinCount()).isEqualTo(10_004);
+        assertThat(change.getTotal()).isEqualTo(1_000_085);
+    }
+
+    @Test
+    @DisplayName("Change should be optimal for coin systems where greedy is not")
+    public void calculate_nonCanonicalCoins() {
+        var coins = new int[]{1, 3, 4};
+        var changeCalculator = new ChangeCalculator(new CoinRegistry(Set.of(1, 3, 4)));
+
+        assertThat(changeCalculator.calculate(6).orElseThrow().toCoinList()).containsExactly(3, 3);
+
+        var optimal = bruteForceMinCoins(coins, 2_000);
+        for (int amount = 0; amount <= 2_000; amount++) {
+            var change = changeCalculator.calculate(amount).orElseThrow();
+            assertThat(change.getTotal()).isEqualTo(amount);
+            assertThat(change.getCoinCount()).isEqualTo(optimal[amount]);
+        }
+    }
+
+    @Test
+    @DisplayName("Amounts that can't be made out of the allowed coins should return empty")
+    public void calculate_unreachableAmount() {
+        var changeCalculator = new ChangeCalculator(new CoinRegistry(Set.of(3, 5)));
+
+        assertThat(changeCalculator.calculate(7)).isEmpty();
+        assertThat(changeCalculator.calculate(8).orElseThrow().toCoinList()).containsExactly(5, 3);
+    }
+
+    /**
+     * Reference solution computed without any of the engine's shortcuts.
+     */
+    private int[] bruteForceMinCoins(int[] coins, int maxAmount) {
+        var minCoins = new int[maxAmount + 1];
+        Arrays.fill(minCoins, Integer.MAX_VALUE);
+        minCoins[0] = 0;
+        for (int amount = 1; amount <= maxAmount; amount++) {
+            for (int coin : coins) {
+                if (coin <= amount && minCoins[amount - coin] != Integer.MAX_VALUE) {
+                    minCoins[amount] = Math.min(minCoins[amount], minCoins[amount - coin] + 1);
+                }
+            }
+        }
+        return minCoins;
+    }
+}
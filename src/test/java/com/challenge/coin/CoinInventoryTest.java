@@ -0,0 +1,120 @@
+package com.challenge.coin;
+
+import com.challenge.entity.CoinCount;
+import com.challenge.repository.CoinCountRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoinInventoryTest {
+
+    private final CoinRegistry coinRegistry = new CoinRegistry(Set.of(5, 10, 20, 50, 100));
+    private final CoinCountRepository coinCountRepository = mock(CoinCountRepository.class);
+
+    @Test
+    @DisplayName("Change should be adjusted to the coins available in the machine")
+    public void findChange_optimalChangeNotAvailable() {
+        var coinInventory = emptyInventory();
+        depositCoins(coinInventory, 50, 20, 20, 20);
+
+        var change = coinInventory.findChange(60).orElseThrow();
+
+        assertThat(change.toCoinList()).containsExactly(20, 20, 20);
+    }
+
+    @Test
+    @DisplayName("Change should not be found if the available coins can't add up to the amount")
+    public void findChange_notEnoughCoins() {
+        var coinInventory = emptyInventory();
+        depositCoins(coinInventory, 50, 20);
+
+        assertThat(coinInventory.findChange(60)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Change should be found among the smaller coins when the largest coins don't add up")
+    public void findChange_largestCoinsDontAddUp() {
+        var coinInventory = emptyInventory();
+        depositCoins(coinInventory, 100, 50, 20, 20, 20);
+
+        var change = coinInventory.findChange(110).orElseThrow();
+
+        assertThat(change.toCoinList()).containsExactlyInAnyOrder(50, 20, 20, 20);
+    }
+
+    @Test
+    @DisplayName("Change should not be searched for an amount too large to search")
+    public void findChange_amountTooLarge() {
+        var coinInventory = emptyInventory();
+        coinInventory.deposit(50, 100_000);
+        depositCoins(coinInventory, 20, 20, 20);
+
+        assertThat(coinInventory.findChange(1_000_060)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Taking change should withdraw the coins from the inventory")
+    public void take_successfully() {
+        var coinInventory = emptyInventory();
+        depositCoins(coinInventory, 50, 10, 10, 5);
+
+        var change = coinInventory.take(65).orElseThrow();
+
+        assertThat(change.toCoinList()).containsExactly(50, 10, 5);
+        assertThat(coinInventory.getAvailable(50)).isEqualTo(0);
+        assertThat(coinInventory.getAvailable(10)).isEqualTo(1);
+        assertThat(coinInventory.getAvailable(5)).isEqualTo(0);
+        assertThat(coinInventory.take(65)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("The coins counted since the last save should be saved, and the counts saved by others read back")
+    public void save_successfully() {
+        var coinInventory = emptyInventory();
+        depositCoins(coinInventory, 50, 50, 20);
+        coinInventory.take(50).orElseThrow();
+
+        // another instance counted in two coins of 20 meanwhile
+        when(coinCountRepository.findAll()).thenReturn(List.of(new CoinCount(50, 1), new CoinCount(20, 3)));
+        coinInventory.save();
+
+        verify(coinCountRepository).addToCount(50, 1);
+        verify(coinCountRepository).addToCount(20, 1);
+        assertThat(coinInventory.getAvailable(50)).isEqualTo(1);
+        assertThat(coinInventory.getAvailable(20)).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("The counts saved by the previous run should be loaded at startup")
+    public void load_successfully() {
+        var coinInventory = emptyInventory();
+        when(coinCountRepository.findAll()).thenReturn(List.of(new CoinCount(100, 7)));
+
+        coinInventory.load();
+
+        verify(coinCountRepository).insertIfAbsent(100, 0);
+        assertThat(coinInventory.getAvailable(100)).isEqualTo(7);
+        assertThat(coinInventory.getAvailable(5)).isZero();
+    }
+
+    private CoinInventory emptyInventory() {
+        return new CoinInventory(coinRegistry, new ChangeCalculator(coinRegistry), coinCountRepository,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), new SimpleMeterRegistry(), true, 0);
+    }
+
+    private void depositCoins(CoinInventory coinInventory, int... coins) {
+        for (int coin : coins) {
+            coinInventory.deposit(coin);
+        }
+    }
+}
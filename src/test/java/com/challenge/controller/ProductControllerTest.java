@@ -2,10 +2,14 @@ package com.challenge.controller;
 
 import com.challenge.dto.error.ApiErrorDto;
 import com.challenge.dto.product.DeleteProductDto;
+import com.challenge.dto.product.ProductChangeFeedDto;
 import com.challenge.dto.product.ProductDto;
+import com.challenge.dto.product.StockSlotsDto;
 import com.challenge.dto.product.UpdateProductDto;
+import com.challenge.entity.ProductChangeType;
 import com.challenge.entity.User;
 import com.challenge.service.JWTService;
+import com.challenge.service.ProductChangeService;
 import com.challenge.service.UserAuthenticationService;
 import com.github.database.rider.core.api.dataset.CompareOperation;
 import com.github.database.rider.core.api.dataset.DataSet;
@@ -22,6 +26,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.HashMap;
 
@@ -49,6 +54,12 @@ public class ProductControllerTest {
     @Autowired
     private UserAuthenticationService userAuthenticationService;
 
+    @Autowired
+    private ProductChangeService productChangeService;
+
+    @Autowired
+    private ProductController productController;
+
     @Before
     public void setup() {
         port = 8080;
@@ -143,6 +154,176 @@ public class ProductControllerTest {
         assertThat(response).hasSize(3);
     }
 
+    @Test
+    @DisplayName("Products should be returned page by page following the next cursor")
+    public void getProducts_paginated() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        var firstPage = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .queryParam("limit", 2)
+                .get("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract();
+        var firstProducts = firstPage.as(ProductDto[].class);
+        var nextCursor = firstPage.header(ProductController.NEXT_CURSOR_HEADER);
+
+        assertThat(firstProducts).hasSize(2);
+        assertThat(nextCursor).isEqualTo(firstProducts[1].getId().toString());
+
+        var secondPage = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .queryParam("limit", 2)
+                .queryParam("after", nextCursor)
+                .get("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract();
+        var secondProducts = secondPage.as(ProductDto[].class);
+
+        assertThat(secondProducts).hasSize(1);
+        assertThat(secondProducts[0].getId()).isNotIn(firstProducts[0].getId(), firstProducts[1].getId());
+        assertThat(secondPage.header(ProductController.NEXT_CURSOR_HEADER)).isNull();
+    }
+
+    @Test
+    @DisplayName("The whole catalogue should be returned when no page is requested")
+    public void getProducts_wholeCatalogueWithoutPaging() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        Object configuredPageSize = ReflectionTestUtils.getField(productController, "defaultPageSize");
+        ReflectionTestUtils.setField(productController, "defaultPageSize", 1);
+        try {
+            var catalogue = given()
+                    .contentType(ContentType.JSON)
+                    .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                    .get("/api/product")
+                    .then()
+                    .statusCode(HttpStatus.OK.value())
+                    .extract();
+
+            assertThat(catalogue.as(ProductDto[].class)).hasSize(3);
+            assertThat(catalogue.header(ProductController.NEXT_CURSOR_HEADER)).isNull();
+
+            // a cursor without a limit continues with the default page size
+            var page = given()
+                    .contentType(ContentType.JSON)
+                    .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                    .queryParam("after", catalogue.as(ProductDto[].class)[0].getId())
+                    .get("/api/product")
+                    .then()
+                    .statusCode(HttpStatus.OK.value())
+                    .extract();
+
+            assertThat(page.as(ProductDto[].class)).hasSize(1);
+            assertThat(page.header(ProductController.NEXT_CURSOR_HEADER)).isNotNull();
+        } finally {
+            ReflectionTestUtils.setField(productController, "defaultPageSize", configuredPageSize);
+        }
+    }
+
+    @Test
+    @DisplayName("Products should not be returned again until the catalogue changes")
+    public void getProducts_notModified() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        var eTag = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .get("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .header(HttpHeaders.ETAG);
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .get("/api/product")
+                .then()
+                .statusCode(HttpStatus.NOT_MODIFIED.value());
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new UpdateProductDto(PRODUCT_1.getId(), "Updated Product", 80, 15))
+                .put("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        var newETag = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .get("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .header(HttpHeaders.ETAG);
+
+        assertThat(newETag).isNotEqualTo(eTag);
+    }
+
+    @Test
+    @DisplayName("Product changes should be returned in order after the last synced change")
+    public void getProductChanges_successfully() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+        var lastSeq = getProductChanges(bearerToken, 0).getLastSeq();
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new UpdateProductDto(PRODUCT_1.getId(), "Updated Product", 80, 15))
+                .put("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new DeleteProductDto(PRODUCT_1.getId()))
+                .delete("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+        productChangeService.sequenceChanges();
+
+        var response = getProductChanges(bearerToken, lastSeq);
+
+        assertThat(response.isResyncRequired()).isFalse();
+        assertThat(response.getChanges()).hasSize(2);
+        assertThat(response.getChanges().get(0).getProductId()).isEqualTo(PRODUCT_1.getId());
+        assertThat(response.getChanges().get(1).getType()).isEqualTo(ProductChangeType.DELETED);
+        assertThat(response.getChanges().get(1).getProduct()).isNull();
+        assertThat(response.getLastSeq()).isEqualTo(response.getChanges().get(1).getSeq());
+        assertThat(getProductChanges(bearerToken, response.getLastSeq()).getChanges()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Product changes should be readable by buyers")
+    public void getProductChanges_asBuyer() {
+        var sellerToken = prepareTokenForRequest(SELLER_1);
+        var buyerToken = prepareTokenForRequest(BUYER_1);
+        var lastSeq = getProductChanges(buyerToken, 0).getLastSeq();
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, sellerToken)
+                .body(new UpdateProductDto(PRODUCT_1.getId(), "Updated Product", 80, 15))
+                .put("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+        productChangeService.sequenceChanges();
+
+        var response = getProductChanges(buyerToken, lastSeq);
+
+        assertThat(response.getChanges()).hasSize(1);
+        assertThat(response.getChanges().get(0).getType()).isEqualTo(ProductChangeType.UPDATED);
+        assertThat(response.getChanges().get(0).getProduct().getProductName()).isEqualTo("Updated Product");
+    }
+
     /**
      * UPDATE PRODUCT
      */
@@ -195,6 +376,45 @@ public class ProductControllerTest {
                 .statusCode(HttpStatus.BAD_REQUEST.value());
     }
 
+    /**
+     * UPDATE STOCK SLOTS
+     */
+    @Test
+    @DisplayName("Product stock should be split evenly across the stock slots")
+    @ExpectedDataSet(value = "product-controller/updateStockSlots-expected.yml",
+            compareOperation = CompareOperation.CONTAINS)
+    public void updateStockSlots_successfully() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+        var requestBody = new StockSlotsDto(PRODUCT_1.getId(), 3);
+
+        var response = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .put("/api/product/stock-slots")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(ProductDto.class);
+
+        assertThat(response.getAmountAvailable()).isEqualTo(100);
+    }
+
+    @Test
+    @DisplayName("A seller should not be able to split other seller's product stock")
+    public void updateStockSlots_productNotFound() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+        var requestBody = new StockSlotsDto(PRODUCT_4.getId(), 3);
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .put("/api/product/stock-slots")
+                .then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
     /**
      * DELETE PRODUCT
      */
@@ -229,13 +449,26 @@ public class ProductControllerTest {
                 .statusCode(HttpStatus.NOT_FOUND.value());
     }
 
+    private ProductChangeFeedDto getProductChanges(String bearerToken, long after) {
+        return given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .queryParam("after", after)
+                .get("/api/product/changes")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(ProductChangeFeedDto.class);
+    }
+
     /**
      * Generate token for a user and save it to the DB as active.
      */
     private String prepareTokenForRequest(User user) {
         String role = user.getRole().getAuthority();
-        String token = jwtService.generateToken(user.getUsername(), role, "/api/login");
-        userAuthenticationService.saveNewAuthentication(user.getUsername(), token, jwtService.getTokenExpiration(token));
+        String token = jwtService.generateToken(user.getId(), user.getUsername(), role, user.getTokenEpoch(), "/api/login");
+        userAuthenticationService.saveNewAuthentication(user.getUsername(), jwtService.getTokenId(token),
+                jwtService.getTokenExpiration(token), user.getTokenEpoch());
         return "Bearer " + token;
     }
 }
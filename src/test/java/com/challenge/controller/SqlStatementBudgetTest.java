@@ -0,0 +1,293 @@
+package com.challenge.controller;
+
+import com.challenge.dto.auth.RefreshTokenDto;
+import com.challenge.dto.product.DeleteProductDto;
+import com.challenge.dto.product.ProductDto;
+import com.challenge.dto.product.StockSlotsDto;
+import com.challenge.dto.product.UpdateProductDto;
+import com.challenge.dto.user.UpdatePasswordDto;
+import com.challenge.dto.user.UpdateUserDto;
+import com.challenge.dto.user.UserEntryDto;
+import com.challenge.entity.User;
+import com.challenge.service.JWTService;
+import com.challenge.service.UserAuthenticationService;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.spring.api.DBRider;
+import io.restassured.http.ContentType;
+import io.restassured.specification.RequestSpecification;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.function.Function;
+
+import static com.challenge.testUtil.TestConstants.BUYER_1;
+import static com.challenge.testUtil.TestConstants.PRODUCT_1;
+import static com.challenge.testUtil.TestConstants.PRODUCT_2;
+import static com.challenge.testUtil.TestConstants.SELLER_1;
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.port;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that every endpoint of the user and product controllers stays within its budget
+ * of SQL statements, so that an association fetched eagerly or lazily one row at a time
+ * shows up as a failing test. Every budget includes the lookup of the user's token epoch,
+ * which is only made on the first request of a user.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@RunWith(SpringRunner.class)
+@DBRider
+@DataSet(
+        value = {"database.yml"},
+        skipCleaningFor = {"flyway_schema_history"},
+        cleanAfter = true,
+        cleanBefore = true)
+public class SqlStatementBudgetTest {
+
+    @Autowired
+    private JWTService jwtService;
+
+    @Autowired
+    private UserAuthenticationService userAuthenticationService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @Before
+    public void setup() {
+        port = 8080;
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /**
+     * USER ENDPOINTS
+     */
+    @Test
+    @DisplayName("Creating a user should stay within its SQL statement budget")
+    public void createUser_withinBudget() {
+        var requestBody = new UserEntryDto("testUser", "testPwd", "ROLE_SELLER");
+
+        assertWithinBudget(5, request -> request
+                .body(requestBody)
+                .post("/api/user")
+                .then()
+                .statusCode(HttpStatus.CREATED.value()));
+    }
+
+    @Test
+    @DisplayName("Logging in should stay within its SQL statement budget")
+    public void login_withinBudget() {
+        var requestBody = new UserEntryDto(BUYER_1.getUsername(), "password", BUYER_1.getRole().getAuthority());
+
+        assertWithinBudget(3, request -> request
+                .body(requestBody)
+                .post("/api/login")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Refreshing the tokens should stay within its SQL statement budget")
+    public void refreshTokens_withinBudget() {
+        var refreshToken = prepareRefreshToken(BUYER_1);
+
+        assertWithinBudget(2, request -> request
+                .body(new RefreshTokenDto(refreshToken))
+                .post("/api/login/refresh")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Getting all the users should stay within its SQL statement budget")
+    public void getAllUsers_withinBudget() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        assertWithinBudget(2, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .get("/api/user")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Updating a user should stay within its SQL statement budget")
+    public void updateUser_withinBudget() {
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        assertWithinBudget(9, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new UpdateUserDto("buyerToSeller", "ROLE_SELLER"))
+                .put("/api/user")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Updating a password should stay within its SQL statement budget")
+    public void updatePassword_withinBudget() {
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        assertWithinBudget(4, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new UpdatePasswordDto("password", "newPassword"))
+                .put("/api/user/password")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Deleting a user should stay within its SQL statement budget")
+    public void deleteUser_withinBudget() {
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        assertWithinBudget(7, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .delete("/api/user")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Logging out from all sessions should stay within its SQL statement budget")
+    public void logoutAll_withinBudget() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        assertWithinBudget(2, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .post("/api/user/logout/all")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    /**
+     * PRODUCT ENDPOINTS
+     */
+    @Test
+    @DisplayName("Creating a product should stay within its SQL statement budget")
+    public void createProduct_withinBudget() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+        var requestBody = ProductDto.builder()
+                .amountAvailable(10)
+                .cost(25)
+                .productName("New Product")
+                .build();
+
+        assertWithinBudget(4, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .post("/api/product")
+                .then()
+                .statusCode(HttpStatus.CREATED.value()));
+    }
+
+    @Test
+    @DisplayName("Getting the products should stay within its SQL statement budget")
+    public void getProducts_withinBudget() {
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        assertWithinBudget(2, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .get("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Getting the product changes should stay within its SQL statement budget")
+    public void getProductChanges_withinBudget() {
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        assertWithinBudget(3, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .get("/api/product/changes")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Updating a product should stay within its SQL statement budget")
+    public void updateProduct_withinBudget() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        assertWithinBudget(5, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new UpdateProductDto(PRODUCT_1.getId(), "Updated Product", 80, 15))
+                .put("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Splitting a product's stock should stay within its SQL statement budget")
+    public void updateStockSlots_withinBudget() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        // one insert per stock slot
+        assertWithinBudget(6 + 3, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new StockSlotsDto(PRODUCT_1.getId(), 3))
+                .put("/api/product/stock-slots")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    @Test
+    @DisplayName("Deleting a product should stay within its SQL statement budget")
+    public void deleteProduct_withinBudget() {
+        var bearerToken = prepareTokenForRequest(SELLER_1);
+
+        assertWithinBudget(4, request -> request
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(new DeleteProductDto(PRODUCT_2.getId()))
+                .delete("/api/product")
+                .then()
+                .statusCode(HttpStatus.OK.value()));
+    }
+
+    /**
+     * Sends a request and checks how many SQL statements were prepared while it was handled.
+     */
+    private void assertWithinBudget(long budget, Function<RequestSpecification, ?> request) {
+        statistics.clear();
+        request.apply(given().contentType(ContentType.JSON));
+
+        assertThat(statistics.getPrepareStatementCount())
+                .as("SQL statements")
+                .isLessThanOrEqualTo(budget);
+    }
+
+    /**
+     * Generate a refresh token for a user and save its session to the DB as active.
+     */
+    private String prepareRefreshToken(User user) {
+        String role = user.getRole().getAuthority();
+        String token = jwtService.generateRefreshToken(user.getId(), user.getUsername(), role, user.getTokenEpoch(), "/api/login");
+        userAuthenticationService.saveNewAuthentication(user.getUsername(), jwtService.getTokenId(token),
+                jwtService.getTokenExpiration(token), user.getTokenEpoch());
+        return token;
+    }
+
+    /**
+     * Generate token for a user and save it to the DB as active.
+     */
+    private String prepareTokenForRequest(User user) {
+        String role = user.getRole().getAuthority();
+        String token = jwtService.generateToken(user.getId(), user.getUsername(), role, user.getTokenEpoch(), "/api/login");
+        userAuthenticationService.saveNewAuthentication(user.getUsername(), jwtService.getTokenId(token),
+                jwtService.getTokenExpiration(token), user.getTokenEpoch());
+        return "Bearer " + token;
+    }
+}
@@ -1,13 +1,21 @@
 package com.challenge.controller;
 
 import com.challenge.dto.error.ApiErrorDto;
+import com.challenge.dto.product.ProductDto;
+import com.challenge.dto.transaction.BulkDepositTransactionDto;
 import com.challenge.dto.transaction.BuyTransactionDto;
 import com.challenge.dto.transaction.BuyTransactionResponseDto;
+import com.challenge.dto.transaction.CartItemDto;
+import com.challenge.dto.transaction.CartTransactionDto;
+import com.challenge.dto.transaction.CartTransactionResponseDto;
 import com.challenge.dto.transaction.DepositTransactionDto;
 import com.challenge.dto.user.UserDto;
 import com.challenge.entity.User;
 import com.challenge.service.JWTService;
+import com.challenge.service.SellerLedgerService;
+import com.challenge.service.TransactionService;
 import com.challenge.service.UserAuthenticationService;
+import com.challenge.service.purchase.BuyMode;
 import com.github.database.rider.core.api.dataset.CompareOperation;
 import com.github.database.rider.core.api.dataset.DataSet;
 import com.github.database.rider.core.api.dataset.ExpectedDataSet;
@@ -22,16 +30,21 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static com.challenge.testUtil.TestConstants.BUYER_1;
 import static com.challenge.testUtil.TestConstants.BUYER_2;
 import static com.challenge.testUtil.TestConstants.PRODUCT_1;
 import static com.challenge.testUtil.TestConstants.PRODUCT_2;
+import static com.challenge.testUtil.TestConstants.PRODUCT_4;
 import static com.challenge.testUtil.TestConstants.SELLER_1;
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.port;
@@ -53,6 +66,12 @@ public class TransactionControllerTest {
     @Autowired
     private UserAuthenticationService userAuthenticationService;
 
+    @Autowired
+    private SellerLedgerService sellerLedgerService;
+
+    @Autowired
+    private TransactionService transactionService;
+
     @Before
     public void setup() {
         port = 8080;
@@ -78,6 +97,52 @@ public class TransactionControllerTest {
         assertThat(response.getDeposit()).isEqualTo(100);
     }
 
+    @Test
+    @DisplayName("A retried deposit with the same idempotency key should be applied only once")
+    public void depositMoney_idempotencyKeyReplayed() {
+        var requestBody = new DepositTransactionDto(100);
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        for (int i = 0; i < 2; i++) {
+            var response = given()
+                    .contentType(ContentType.JSON)
+                    .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                    .header("Idempotency-Key", "deposit-1")
+                    .body(requestBody)
+                    .put("/api/transaction/deposit")
+                    .then()
+                    .statusCode(HttpStatus.OK.value())
+                    .extract()
+                    .as(UserDto.class);
+
+            assertThat(response.getDeposit()).isEqualTo(100);
+        }
+    }
+
+    @Test
+    @DisplayName("An idempotency key should not be reused for a different request")
+    public void depositMoney_idempotencyKeyReused() {
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .header("Idempotency-Key", "deposit-2")
+                .body(new DepositTransactionDto(100))
+                .put("/api/transaction/deposit")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .header("Idempotency-Key", "deposit-2")
+                .body(new DepositTransactionDto(50))
+                .put("/api/transaction/deposit")
+                .then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
     @Test
     @DisplayName("Deposit should not be authorized with ROLE_SELLER")
     public void depositMoney_forbidden() {
@@ -108,6 +173,60 @@ public class TransactionControllerTest {
                 .statusCode(HttpStatus.BAD_REQUEST.value());
     }
 
+    @Test
+    @DisplayName("Successfully deposit several coins at once")
+    public void depositMoneyInBulk_successfully() {
+        var requestBody = new BulkDepositTransactionDto(Map.of(100, 3, 50, 2, 5, 1));
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        var response = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .put("/api/transaction/deposit/bulk")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(UserDto.class);
+
+        assertThat(response).isNotNull();
+        assertThat(response.getDeposit()).isEqualTo(405);
+    }
+
+    @Test
+    @DisplayName("Bulk deposit should not go through if one of the coins is invalid")
+    public void depositMoneyInBulk_invalidInput() {
+        var requestBody = new BulkDepositTransactionDto(Map.of(100, 3, 9, 1));
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .put("/api/transaction/deposit/bulk")
+                .then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    @DisplayName("Successfully reset the buyer's deposit")
+    public void resetDeposit_successfully() {
+        var bearerToken = prepareTokenForRequest(BUYER_2);
+
+        var response = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .put("/api/transaction/deposit/reset")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(UserDto.class);
+
+        assertThat(response).isNotNull();
+        assertThat(response.getUsername()).isEqualTo(BUYER_2.getUsername());
+        assertThat(response.getDeposit()).isZero();
+    }
+
     @Test
     @DisplayName("Buyer should successfully buy product")
     public void buyProduct_successfully() {
@@ -133,6 +252,88 @@ public class TransactionControllerTest {
         assertThat(response.getBoughtProduct().getAmountAvailable()).isEqualTo(98);
     }
 
+    @Test
+    @DisplayName("A retried buy with the same idempotency key should be applied only once")
+    public void buyProduct_idempotencyKeyReplayed() {
+        var requestBody = new BuyTransactionDto(PRODUCT_1.getId(), 2);
+        var bearerToken = prepareTokenForRequest(BUYER_2);
+
+        for (int i = 0; i < 2; i++) {
+            var response = given()
+                    .contentType(ContentType.JSON)
+                    .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                    .header("Idempotency-Key", "buy-1")
+                    .body(requestBody)
+                    .post("/api/transaction/product/buy")
+                    .then()
+                    .statusCode(HttpStatus.OK.value())
+                    .extract()
+                    .as(BuyTransactionResponseDto.class);
+
+            assertThat(response.getTotalSpent()).isEqualTo(20);
+            assertThat(response.getBoughtProduct().getAmountAvailable()).isEqualTo(98);
+        }
+    }
+
+    @Test
+    @DisplayName("Buyer should successfully buy product in conditional buy mode")
+    public void buyProduct_conditionalMode() {
+        var requestBody = new BuyTransactionDto(PRODUCT_1.getId(), 2);
+        var bearerToken = prepareTokenForRequest(BUYER_2);
+
+        var response = withBuyMode(BuyMode.CONDITIONAL, () -> given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .post("/api/transaction/product/buy")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(BuyTransactionResponseDto.class));
+
+        assertThat(response.getTotalSpent()).isEqualTo(20);
+        assertThat(response.getChange().stream().mapToInt(Integer::intValue).sum()).isEqualTo(75);
+        assertThat(response.getBoughtProduct().getAmountAvailable()).isEqualTo(98);
+    }
+
+    @Test
+    @DisplayName("Buyer should not be able spend more money than available in conditional buy mode")
+    public void buyProduct_conditionalModeNotEnoughFunds() {
+        var requestBody = new BuyTransactionDto(PRODUCT_2.getId(), 2);
+        var bearerToken = prepareTokenForRequest(BUYER_2);
+
+        var response = withBuyMode(BuyMode.CONDITIONAL, () -> given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .post("/api/transaction/product/buy")
+                .then()
+                .statusCode(HttpStatus.CONFLICT.value())
+                .extract()
+                .as(ApiErrorDto.class));
+
+        assertThat(response.getReason()).asString().contains("Insufficient funds");
+    }
+
+    @Test
+    @DisplayName("Seller's earnings should be folded from the ledger into the seller's deposit")
+    @ExpectedDataSet(value = "transaction-controller/foldSellerLedger-expected.yml",
+            compareOperation = CompareOperation.CONTAINS)
+    public void buyProduct_sellerLedgerFolded() {
+        var requestBody = new BuyTransactionDto(PRODUCT_1.getId(), 2);
+        var bearerToken = prepareTokenForRequest(BUYER_2);
+
+        given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .post("/api/transaction/product/buy")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        sellerLedgerService.foldCredits();
+    }
+
     @Test
     @DisplayName("Seller should not be able to buy a product")
     public void buyProduct_forbidden() {
@@ -208,6 +409,57 @@ public class TransactionControllerTest {
         assertThat(((HashMap) response.getReason()).keySet()).hasSize(2);
     }
 
+    @Test
+    @DisplayName("Buyer should successfully buy all the products of a cart")
+    public void buyCart_successfully() {
+        var requestBody = new CartTransactionDto(List.of(
+                new CartItemDto(PRODUCT_4.getId(), 1),
+                new CartItemDto(PRODUCT_1.getId(), 1),
+                new CartItemDto(PRODUCT_1.getId(), 1)));
+        var bearerToken = prepareTokenForRequest(BUYER_2);
+
+        var response = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .post("/api/transaction/cart/buy")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(CartTransactionResponseDto.class);
+
+        assertThat(response).isNotNull();
+        assertThat(response.getTotalSpent()).isEqualTo(25);
+        assertThat(response.getChange()).containsExactly(50, 20);
+        assertThat(response.getBoughtProducts()).hasSize(2);
+        assertThat(response.getBoughtProducts())
+                .filteredOn(product -> product.getId().equals(PRODUCT_1.getId()))
+                .extracting(ProductDto::getAmountAvailable)
+                .containsExactly(98);
+    }
+
+    @Test
+    @DisplayName("No product of a cart should be bought if the buyer can't pay for all of them")
+    public void buyCart_notEnoughFundsAvailable() {
+        var requestBody = new CartTransactionDto(List.of(
+                new CartItemDto(PRODUCT_1.getId(), 1),
+                new CartItemDto(PRODUCT_2.getId(), 1)));
+        var bearerToken = prepareTokenForRequest(BUYER_2);
+
+        var response = given()
+                .contentType(ContentType.JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearerToken)
+                .body(requestBody)
+                .post("/api/transaction/cart/buy")
+                .then()
+                .statusCode(HttpStatus.CONFLICT.value())
+                .extract()
+                .as(ApiErrorDto.class);
+
+        assertThat(response).isNotNull();
+        assertThat(response.getReason()).asString().contains("Insufficient funds");
+    }
+
     @Test
     @DisplayName("Multiple concurrent transactions should result to the correct final product and buyer state")
     @ExpectedDataSet(value = "transaction-controller/concurentBuyTransaction-expected.yml",
@@ -238,13 +490,29 @@ public class TransactionControllerTest {
         CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new)).join();
     }
 
+    /**
+     * Sends requests with another buy mode than the configured one. The mode is switched
+     * on the running service, so the test shares the application context of the others.
+     */
+    private <T> T withBuyMode(BuyMode buyMode, Supplier<T> requests) {
+        TransactionService target = AopTestUtils.getTargetObject(transactionService);
+        Object configuredMode = ReflectionTestUtils.getField(target, "buyMode");
+        ReflectionTestUtils.setField(target, "buyMode", buyMode);
+        try {
+            return requests.get();
+        } finally {
+            ReflectionTestUtils.setField(target, "buyMode", configuredMode);
+        }
+    }
+
     /**
      * Generate token for a user and save it to the DB as active.
      */
     private String prepareTokenForRequest(User user) {
         String role = user.getRole().getAuthority();
-        String token = jwtService.generateToken(user.getUsername(), role, "/api/login");
-        userAuthenticationService.saveNewAuthentication(user.getUsername(), token, jwtService.getTokenExpiration(token));
+        String token = jwtService.generateToken(user.getId(), user.getUsername(), role, user.getTokenEpoch(), "/api/login");
+        userAuthenticationService.saveNewAuthentication(user.getUsername(), jwtService.getTokenId(token),
+                jwtService.getTokenExpiration(token), user.getTokenEpoch());
         return "Bearer " + token;
     }
 }
@@ -1,5 +1,7 @@
 package com.challenge.controller;
 
+import com.challenge.dto.auth.AuthResponseDto;
+import com.challenge.dto.auth.RefreshTokenDto;
 import com.challenge.dto.error.ApiErrorDto;
 import com.challenge.dto.user.UpdatePasswordDto;
 import com.challenge.dto.user.UpdateUserDto;
@@ -318,6 +320,47 @@ public class UserControllerTest {
                 .statusCode(HttpStatus.FORBIDDEN.value());
     }
 
+    /**
+     * REFRESH TOKENS
+     */
+    @Test
+    @DisplayName("A refresh token should be exchanged for new tokens only once")
+    public void refreshTokens_successfully() {
+        var refreshToken = prepareRefreshToken(BUYER_1);
+
+        var response = given()
+                .contentType(ContentType.JSON)
+                .body(new RefreshTokenDto(refreshToken))
+                .post("/api/login/refresh")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(AuthResponseDto.class);
+
+        assertThat(response.getAccessToken()).isNotNull();
+        assertThat(response.getRefreshToken()).isNotEqualTo(refreshToken);
+
+        given()
+                .contentType(ContentType.JSON)
+                .body(new RefreshTokenDto(refreshToken))
+                .post("/api/login/refresh")
+                .then()
+                .statusCode(HttpStatus.UNAUTHORIZED.value());
+    }
+
+    @Test
+    @DisplayName("Access tokens should not be accepted as refresh tokens")
+    public void refreshTokens_accessTokenUsed() {
+        var bearerToken = prepareTokenForRequest(BUYER_1);
+
+        given()
+                .contentType(ContentType.JSON)
+                .body(new RefreshTokenDto(bearerToken.substring("Bearer ".length())))
+                .post("/api/login/refresh")
+                .then()
+                .statusCode(HttpStatus.UNAUTHORIZED.value());
+    }
+
     @Test
     @DisplayName("User should be logged out from all sessions")
     public void logoutAll_successfully() {
@@ -340,13 +383,25 @@ public class UserControllerTest {
         assertThat(userAuthenticationService.isUserAlreadyAuthenticated(SELLER_1.getUsername())).isEqualTo(false);
     }
 
+    /**
+     * Generate a refresh token for a user and save its session to the DB as active.
+     */
+    private String prepareRefreshToken(User user) {
+        String role = user.getRole().getAuthority();
+        String token = jwtService.generateRefreshToken(user.getId(), user.getUsername(), role, user.getTokenEpoch(), "/api/login");
+        userAuthenticationService.saveNewAuthentication(user.getUsername(), jwtService.getTokenId(token),
+                jwtService.getTokenExpiration(token), user.getTokenEpoch());
+        return token;
+    }
+
     /**
      * Generate token for a user and save it to the DB as active.
      */
     private String prepareTokenForRequest(User user) {
         String role = user.getRole().getAuthority();
-        String token = jwtService.generateToken(user.getUsername(), role, "/api/login");
-        userAuthenticationService.saveNewAuthentication(user.getUsername(), token, jwtService.getTokenExpiration(token));
+        String token = jwtService.generateToken(user.getId(), user.getUsername(), role, user.getTokenEpoch(), "/api/login");
+        userAuthenticationService.saveNewAuthentication(user.getUsername(), jwtService.getTokenId(token),
+                jwtService.getTokenExpiration(token), user.getTokenEpoch());
         return "Bearer " + token;
     }
 }
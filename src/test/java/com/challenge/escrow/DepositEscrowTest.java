@@ -0,0 +1,173 @@
+package com.challenge.escrow;
+
+import com.challenge.repository.UserRepository;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DepositEscrowTest {
+
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final Path journalPath = createJournalPath();
+
+    @After
+    public void cleanUp() throws IOException {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        Files.deleteIfExists(journalPath);
+    }
+
+    @Test
+    @DisplayName("Coins should be escrowed in memory without writing the user")
+    public void deposit_successfully() {
+        var depositEscrow = startEscrow();
+
+        depositEscrow.deposit(USER_ID, 50);
+        int escrowed = depositEscrow.deposit(USER_ID, 20);
+
+        assertThat(escrowed).isEqualTo(70);
+        assertThat(depositEscrow.getEscrowed(USER_ID)).isEqualTo(70);
+        verify(userRepository, never()).addEscrowedDeposit(eq(USER_ID), anyInt(), anyLong());
+    }
+
+    @Test
+    @DisplayName("Escrowed coins should be added to the deposit in a single update and restored on rollback")
+    public void flush_rolledBack() {
+        var depositEscrow = startEscrow();
+        depositEscrow.deposit(USER_ID, 50);
+        depositEscrow.deposit(USER_ID, 20);
+
+        TransactionSynchronizationManager.initSynchronization();
+        depositEscrow.flush(USER_ID);
+
+        verify(userRepository).addEscrowedDeposit(USER_ID, 70, 2);
+        assertThat(depositEscrow.getEscrowed(USER_ID)).isZero();
+
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        assertThat(depositEscrow.getEscrowed(USER_ID)).isEqualTo(70);
+    }
+
+    @Test
+    @DisplayName("A flush should take over the coins of a rolled back flush whose completion hasn't run yet")
+    public void flush_afterRolledBackFlush() {
+        var depositEscrow = startEscrow();
+        depositEscrow.deposit(USER_ID, 50);
+        depositEscrow.deposit(USER_ID, 20);
+
+        TransactionSynchronizationManager.initSynchronization();
+        depositEscrow.flush(USER_ID);
+        TransactionSynchronization rolledBackFlush = TransactionSynchronizationManager.getSynchronizations().get(0);
+
+        // the row still has the sequence number from before the rolled back flush
+        depositEscrow.deposit(USER_ID, 10);
+        depositEscrow.flush(USER_ID);
+        verify(userRepository).addEscrowedDeposit(USER_ID, 80, 3);
+
+        rolledBackFlush.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(depositEscrow.getEscrowed(USER_ID)).isZero();
+    }
+
+    @Test
+    @DisplayName("A flush behind the coins already added should fail instead of dropping the coins")
+    public void flush_behindAppliedCoins() {
+        var depositEscrow = startEscrow();
+        depositEscrow.deposit(USER_ID, 50);
+        when(userRepository.addEscrowedDeposit(USER_ID, 50, 1)).thenReturn(0);
+
+        TransactionSynchronizationManager.initSynchronization();
+        Throwable thrown = catchThrowable(() -> depositEscrow.flush(USER_ID));
+
+        assertThat(thrown).isInstanceOf(IllegalStateException.class);
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        assertThat(depositEscrow.getEscrowed(USER_ID)).isEqualTo(50);
+    }
+
+    @Test
+    @DisplayName("Coins left in the journal should be recovered exactly once")
+    public void recover_successfully() {
+        var crashedEscrow = startEscrow();
+        crashedEscrow.deposit(USER_ID, 50);
+        crashedEscrow.deposit(USER_ID, 20);
+        crashedEscrow.deposit(USER_ID, 10);
+
+        // the first coin was already added to the deposit before the crash
+        when(userRepository.findEscrowSeqById(USER_ID)).thenReturn(Optional.of(1L));
+        startEscrow();
+
+        verify(userRepository).addEscrowedDeposit(USER_ID, 30, 3);
+    }
+
+    @Test
+    @DisplayName("A checkpoint should shrink the journal to the amounts not added to a deposit yet")
+    public void checkpoint_successfully() throws IOException {
+        var depositEscrow = startEscrow();
+        UUID otherUserId = UUID.randomUUID();
+        when(userRepository.lockEscrowSeqById(otherUserId)).thenReturn(Optional.of(0L));
+        when(userRepository.addEscrowedDeposit(eq(otherUserId), anyInt(), anyLong())).thenReturn(1);
+        for (int i = 0; i < 10; i++) {
+            depositEscrow.deposit(USER_ID, 5);
+            depositEscrow.deposit(otherUserId, 10);
+        }
+
+        // the other user's flush is still running while the user inserts another coin
+        TransactionSynchronizationManager.initSynchronization();
+        depositEscrow.flush(otherUserId);
+        depositEscrow.deposit(otherUserId, 20);
+        depositEscrow.checkpoint();
+
+        // one record of 28 bytes per amount instead of one per coin
+        assertThat(Files.size(journalPath)).isEqualTo(3 * 28L);
+
+        // the flush was committed before the crash
+        when(userRepository.findEscrowSeqById(USER_ID)).thenReturn(Optional.of(0L));
+        when(userRepository.findEscrowSeqById(otherUserId)).thenReturn(Optional.of(20L));
+        startEscrow();
+
+        verify(userRepository).addEscrowedDeposit(USER_ID, 50, 19);
+        verify(userRepository).addEscrowedDeposit(otherUserId, 20, 21);
+    }
+
+    private DepositEscrow startEscrow() {
+        when(userRepository.lockEscrowSeqById(USER_ID)).thenReturn(Optional.of(0L));
+        when(userRepository.addEscrowedDeposit(eq(USER_ID), anyInt(), anyLong())).thenReturn(1);
+        var transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        var depositEscrow = new DepositEscrow(userRepository, transactionTemplate, true, 30000, journalPath.toString());
+        depositEscrow.recover();
+        return depositEscrow;
+    }
+
+    private static Path createJournalPath() {
+        try {
+            Path path = Files.createTempFile("escrow", ".journal");
+            Files.delete(path);
+            return path;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
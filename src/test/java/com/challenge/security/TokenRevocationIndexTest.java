@@ -0,0 +1,60 @@
+package com.challenge.security;
+
+import com.challenge.repository.UserRepository;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TokenRevocationIndexTest {
+
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    private static final UUID USER_ID = UUID.fromString("00000000-1000-0000-0000-000000000000");
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final TokenRevocationIndex tokenRevocationIndex = new TokenRevocationIndex(userRepository, HOUR_MILLIS);
+
+    @Test
+    @DisplayName("Tokens issued with an older epoch than the user's should be revoked")
+    public void isRevoked_olderTokenEpoch() {
+        when(userRepository.findTokenEpochById(USER_ID)).thenReturn(Optional.of(1), Optional.of(2));
+
+        assertThat(tokenRevocationIndex.isRevoked(USER_ID, 0)).isTrue();
+        assertThat(tokenRevocationIndex.isRevoked(USER_ID, 1)).isFalse();
+
+        // the epoch is only read again once it's invalidated
+        tokenRevocationIndex.invalidateTokenEpoch(USER_ID);
+        assertThat(tokenRevocationIndex.isRevoked(USER_ID, 1)).isTrue();
+        verify(userRepository, times(2)).findTokenEpochById(USER_ID);
+    }
+
+    @Test
+    @DisplayName("Tokens of deleted users should be revoked")
+    public void isRevoked_userDeleted() {
+        when(userRepository.findTokenEpochById(USER_ID)).thenReturn(Optional.empty());
+
+        assertThat(tokenRevocationIndex.isRevoked(USER_ID, 0)).isTrue();
+        assertThat(tokenRevocationIndex.isRevoked(USER_ID, 0)).isTrue();
+        // the deleted user is cached too
+        verify(userRepository).findTokenEpochById(USER_ID);
+    }
+
+    @Test
+    @DisplayName("Token epochs should be read again once they are older than the TTL")
+    public void isRevoked_epochExpired() {
+        var shortLivedIndex = new TokenRevocationIndex(userRepository, -1);
+        when(userRepository.findTokenEpochById(USER_ID)).thenReturn(Optional.of(0), Optional.of(1));
+
+        assertThat(shortLivedIndex.isRevoked(USER_ID, 0)).isFalse();
+        assertThat(shortLivedIndex.isRevoked(USER_ID, 0)).isTrue();
+        verify(userRepository, times(2)).findTokenEpochById(USER_ID);
+    }
+}
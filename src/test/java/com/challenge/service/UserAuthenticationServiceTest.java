@@ -0,0 +1,80 @@
+package com.challenge.service;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.challenge.exception.exceptions.InvalidTokenException;
+import com.challenge.repository.AuthEntryRepository;
+import com.challenge.repository.UserRepository;
+import com.challenge.security.TokenRevocationIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserAuthenticationServiceTest {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final AuthEntryRepository authEntryRepository = mock(AuthEntryRepository.class);
+    private final JWTService jwtService = mock(JWTService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private UserAuthenticationService userAuthenticationService;
+
+    @Before
+    public void setup() {
+        userAuthenticationService = new UserAuthenticationService(authEntryRepository, mock(UserRepository.class),
+                mock(TokenRevocationIndex.class), jwtService,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), meterRegistry);
+        ReflectionTestUtils.setField(userAuthenticationService, "reaperBatchSize", BATCH_SIZE);
+        ReflectionTestUtils.setField(userAuthenticationService, "reaperMaxBatchesPerRun", 5);
+        ReflectionTestUtils.setField(userAuthenticationService, "reaperPauseMillis", 0L);
+        userAuthenticationService.registerMetrics();
+    }
+
+    @Test
+    @DisplayName("Expired entries should be removed in batches until a batch is not full")
+    public void removeExpiredEntries_untilBatchNotFull() {
+        when(authEntryRepository.removeExpired(BATCH_SIZE)).thenReturn(BATCH_SIZE, BATCH_SIZE, 120);
+        when(authEntryRepository.estimateCount()).thenReturn(42L);
+
+        userAuthenticationService.removeExpiredEntries();
+
+        verify(authEntryRepository, times(3)).removeExpired(BATCH_SIZE);
+        assertThat(meterRegistry.get("vending.sessions.reaped").counter().count()).isEqualTo(1120.0);
+        assertThat(meterRegistry.get("vending.sessions.table.size").gauge().value()).isEqualTo(42.0);
+    }
+
+    @Test
+    @DisplayName("A run should stop after the maximum number of batches")
+    public void removeExpiredEntries_maxBatchesPerRun() {
+        when(authEntryRepository.removeExpired(BATCH_SIZE)).thenReturn(BATCH_SIZE);
+
+        userAuthenticationService.removeExpiredEntries();
+
+        verify(authEntryRepository, times(5)).removeExpired(BATCH_SIZE);
+    }
+
+    @Test
+    @DisplayName("A refresh token without an id should be rejected")
+    public void refreshSession_tokenWithoutId() {
+        DecodedJWT decodedJWT = mock(DecodedJWT.class);
+        when(jwtService.verifyRefreshToken("refresh-token")).thenReturn(decodedJWT);
+
+        Throwable thrown = catchThrowable(() -> userAuthenticationService.refreshSession("refresh-token", "/api/login/refresh"));
+
+        assertThat(thrown).isInstanceOf(InvalidTokenException.class);
+        verify(authEntryRepository, never()).deactivateActiveSession(any(), any());
+    }
+}
@@ -0,0 +1,221 @@
+package com.challenge.service.purchase;
+
+import com.challenge.coin.ChangeCalculator;
+import com.challenge.coin.CoinInventory;
+import com.challenge.coin.CoinRegistry;
+import com.challenge.dto.transaction.BuyTransactionResponseDto;
+import com.challenge.entity.Product;
+import com.challenge.entity.User;
+import com.challenge.escrow.DepositEscrow;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.CoinCountRepository;
+import com.challenge.repository.UserRepository;
+import com.challenge.service.IdempotencyClaim;
+import com.challenge.service.IdempotencyKeyClaimedException;
+import com.challenge.service.ProductService;
+import com.challenge.service.SellerLedgerService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.mapstruct.factory.Mappers;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BuyBatcherTest {
+
+    private static final UUID PRODUCT_ID = UUID.randomUUID();
+    private static final UUID SELLER_ID = UUID.randomUUID();
+
+    private final ProductService productService = mock(ProductService.class);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final SellerLedgerService sellerLedgerService = mock(SellerLedgerService.class);
+
+    @Test
+    @DisplayName("Buys queued behind a running batch should be applied in one transaction and fail independently")
+    public void buy_concurrentBuysBatched() throws InterruptedException {
+        var buyBatcher = buyBatcher(1000, 3);
+        Product product = product(2);
+        var firstBatchLocked = new CountDownLatch(1);
+        var releaseFirstBatch = new CountDownLatch(1);
+        when(productService.getProductByIdLocked(PRODUCT_ID)).thenAnswer(invocation -> {
+            if (firstBatchLocked.getCount() > 0) {
+                firstBatchLocked.countDown();
+                releaseFirstBatch.await();
+            }
+            return product;
+        });
+        when(userRepository.subtractFromDeposit(any(), anyInt())).thenReturn(Optional.of(0));
+
+        List<CompletableFuture<BuyTransactionResponseDto>> buys = new ArrayList<>();
+        buys.add(CompletableFuture.supplyAsync(() -> buyBatcher.buy(PRODUCT_ID, 1, UUID.randomUUID(), IdempotencyClaim.NONE)));
+        firstBatchLocked.await();
+        for (int i = 0; i < 2; i++) {
+            buys.add(CompletableFuture.supplyAsync(() -> buyBatcher.buy(PRODUCT_ID, 1, UUID.randomUUID(), IdempotencyClaim.NONE)));
+        }
+        Thread.sleep(100);
+        releaseFirstBatch.countDown();
+
+        long failed = buys.stream().filter(this::joinFailed).count();
+        assertThat(failed).isEqualTo(1);
+
+        verify(productService, times(2)).getProductByIdLocked(PRODUCT_ID);
+        // one credit per batch
+        verify(sellerLedgerService, times(2)).creditSeller(SELLER_ID, 10);
+    }
+
+    @Test
+    @DisplayName("A buy nothing is queued behind should not wait for the window")
+    public void buy_aloneNotDelayed() {
+        var buyBatcher = buyBatcher(60_000, 32);
+        when(productService.getProductByIdLocked(PRODUCT_ID)).thenReturn(product(2));
+        when(userRepository.subtractFromDeposit(any(), anyInt())).thenReturn(Optional.of(0));
+
+        var buy = CompletableFuture.supplyAsync(() -> buyBatcher.buy(PRODUCT_ID, 1, UUID.randomUUID(), IdempotencyClaim.NONE));
+
+        assertThat(buy.orTimeout(5, TimeUnit.SECONDS).join().getTotalSpent()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("The buys of a batch should be applied in the order of their buyers' ids")
+    public void buy_appliedInBuyerOrder() {
+        var buyBatcher = buyBatcher(1000, 3);
+        when(productService.getProductByIdLocked(PRODUCT_ID)).thenReturn(product(10));
+        when(userRepository.subtractFromDeposit(any(), anyInt())).thenReturn(Optional.of(0));
+        List<UUID> buyerIds = List.of(UUID.fromString("00000000-0000-0000-0000-000000000003"),
+                UUID.fromString("00000000-0000-0000-0000-000000000001"),
+                UUID.fromString("00000000-0000-0000-0000-000000000002"));
+
+        // the first buy is held back until the batch is full, as nothing is running
+        List<CompletableFuture<BuyTransactionResponseDto>> buys = new ArrayList<>();
+        runningBatches(buyBatcher).put(PRODUCT_ID, 1);
+        for (UUID buyerId : buyerIds) {
+            buys.add(CompletableFuture.supplyAsync(() -> buyBatcher.buy(PRODUCT_ID, 1, buyerId, IdempotencyClaim.NONE)));
+        }
+        buys.forEach(CompletableFuture::join);
+
+        InOrder inOrder = inOrder(userRepository);
+        inOrder.verify(userRepository).subtractFromDeposit(buyerIds.get(1), 10);
+        inOrder.verify(userRepository).subtractFromDeposit(buyerIds.get(2), 10);
+        inOrder.verify(userRepository).subtractFromDeposit(buyerIds.get(0), 10);
+    }
+
+    @Test
+    @DisplayName("A buy should fail with its own error if its buyer can't pay")
+    public void buy_insufficientFunds() {
+        var buyBatcher = buyBatcher(0, 32);
+        UUID buyerId = UUID.randomUUID();
+        when(productService.getProductByIdLocked(PRODUCT_ID)).thenReturn(product(10));
+        when(userRepository.subtractFromDeposit(eq(buyerId), anyInt())).thenReturn(Optional.empty());
+
+        var buy = CompletableFuture.supplyAsync(() -> buyBatcher.buy(PRODUCT_ID, 1, buyerId, IdempotencyClaim.NONE));
+
+        assertThatThrownBy(buy::join).hasCauseInstanceOf(BuyTransactionException.class);
+    }
+
+    @Test
+    @DisplayName("A buy should store its response with its idempotency key, or give the key back if it fails")
+    public void buy_idempotencyKeyClaimed() {
+        var buyBatcher = buyBatcher(0, 32);
+        UUID buyerId = UUID.randomUUID();
+        var idempotencyClaim = mock(IdempotencyClaim.class);
+        when(idempotencyClaim.claim()).thenReturn(true);
+        when(productService.getProductByIdLocked(PRODUCT_ID)).thenReturn(product(10));
+        when(userRepository.subtractFromDeposit(eq(buyerId), anyInt())).thenReturn(Optional.of(0), Optional.empty());
+
+        var response = buyBatcher.buy(PRODUCT_ID, 1, buyerId, idempotencyClaim);
+        verify(idempotencyClaim).complete(response);
+
+        assertThatThrownBy(() -> buyBatcher.buy(PRODUCT_ID, 1, buyerId, idempotencyClaim))
+                .isInstanceOf(BuyTransactionException.class);
+        verify(idempotencyClaim).release();
+    }
+
+    @Test
+    @DisplayName("A buy whose idempotency key was already used should not be applied")
+    public void buy_idempotencyKeyAlreadyUsed() {
+        var buyBatcher = buyBatcher(0, 32);
+        var idempotencyClaim = mock(IdempotencyClaim.class);
+        when(productService.getProductByIdLocked(PRODUCT_ID)).thenReturn(product(10));
+
+        assertThatThrownBy(() -> buyBatcher.buy(PRODUCT_ID, 1, UUID.randomUUID(), idempotencyClaim))
+                .isInstanceOf(IdempotencyKeyClaimedException.class);
+        verify(userRepository, never()).subtractFromDeposit(any(), anyInt());
+        verify(idempotencyClaim, never()).release();
+    }
+
+    @Test
+    @DisplayName("A batch should be rejected if the product's stock turned out to be split across stock slots")
+    public void buy_productStriped() {
+        var buyBatcher = buyBatcher(0, 32);
+        Product product = product(0);
+        product.setStockSlots(2);
+        product.setSlotStock(10);
+        when(productService.getProductByIdLocked(PRODUCT_ID)).thenReturn(product);
+
+        assertThatThrownBy(() -> buyBatcher.buy(PRODUCT_ID, 1, UUID.randomUUID(), IdempotencyClaim.NONE))
+                .isInstanceOf(StockLayoutChangedException.class);
+        verify(userRepository, never()).subtractFromDeposit(any(), anyInt());
+    }
+
+    private boolean joinFailed(CompletableFuture<BuyTransactionResponseDto> buy) {
+        try {
+            buy.join();
+            return false;
+        } catch (CompletionException ex) {
+            assertThat(ex).hasCauseInstanceOf(BuyTransactionException.class);
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<UUID, Integer> runningBatches(BuyBatcher buyBatcher) {
+        return (Map<UUID, Integer>) ReflectionTestUtils.getField(buyBatcher, "runningBatches");
+    }
+
+    private BuyBatcher buyBatcher(long windowMillis, int maxBatchSize) {
+        var coinRegistry = new CoinRegistry(Set.of(5, 10, 20, 50, 100));
+        var transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        var coinInventory = new CoinInventory(coinRegistry, new ChangeCalculator(coinRegistry),
+                mock(CoinCountRepository.class), transactionTemplate, new SimpleMeterRegistry(), true, 100);
+
+        return new BuyBatcher(productService, userRepository, sellerLedgerService, coinInventory, mock(DepositEscrow.class),
+                Mappers.getMapper(ProductMapper.class), transactionTemplate, new SimpleMeterRegistry(),
+                true, windowMillis, maxBatchSize);
+    }
+
+    private Product product(int amountAvailable) {
+        return Product.builder()
+                .id(PRODUCT_ID)
+                .productName("PRODUCT")
+                .amountAvailable(amountAvailable)
+                .cost(10)
+                .seller(User.builder().id(SELLER_ID).username("seller").build())
+                .build();
+    }
+}
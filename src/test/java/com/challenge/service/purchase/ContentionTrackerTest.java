@@ -0,0 +1,111 @@
+package com.challenge.service.purchase;
+
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentionTrackerTest {
+
+    private static final UUID PRODUCT_ID = UUID.randomUUID();
+
+    @Test
+    @DisplayName("Product should be bought optimistically until optimistic attempts start conflicting")
+    public void selectMode_switchToPessimistic() {
+        var contentionTracker = new ContentionTracker(BuyMode.ADAPTIVE, 0.2, 2, 0, 100);
+        assertThat(contentionTracker.selectMode(PRODUCT_ID)).isEqualTo(BuyMode.OPTIMISTIC);
+
+        recordAttempts(contentionTracker, 20, false);
+        assertThat(contentionTracker.selectMode(PRODUCT_ID)).isEqualTo(BuyMode.OPTIMISTIC);
+
+        recordAttempts(contentionTracker, 5, true);
+        assertThat(contentionTracker.selectMode(PRODUCT_ID)).isEqualTo(BuyMode.PESSIMISTIC);
+        assertThat(contentionTracker.getHistory()).hasSize(1);
+        assertThat(contentionTracker.getHistory().get(0).getTo()).isEqualTo(BuyMode.PESSIMISTIC);
+    }
+
+    @Test
+    @DisplayName("Product should be bought optimistically again once its lock waits become short")
+    public void selectMode_switchBackToOptimistic() {
+        var contentionTracker = new ContentionTracker(BuyMode.ADAPTIVE, 0.2, 2, 0, 100);
+        recordAttempts(contentionTracker, 5, true);
+        // the round trip of an uncontended lock
+        contentionTracker.recordLockWait(UUID.randomUUID(), TimeUnit.MILLISECONDS.toNanos(1));
+
+        recordLockWaits(contentionTracker, 5, 50);
+        assertThat(contentionTracker.selectMode(PRODUCT_ID)).isEqualTo(BuyMode.PESSIMISTIC);
+
+        recordLockWaits(contentionTracker, 50, 1);
+        assertThat(contentionTracker.selectMode(PRODUCT_ID)).isEqualTo(BuyMode.OPTIMISTIC);
+        assertThat(contentionTracker.getHistory()).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("The round trip of the locking query should not be counted as lock wait")
+    public void recordLockWait_baselineSubtracted() {
+        var contentionTracker = new ContentionTracker(BuyMode.ADAPTIVE, 0.2, 2, 0, 100);
+        recordAttempts(contentionTracker, 5, true);
+
+        // every lock is taken at once, but the database is 10ms away
+        recordLockWaits(contentionTracker, 50, 10);
+
+        assertThat(contentionTracker.selectMode(PRODUCT_ID)).isEqualTo(BuyMode.OPTIMISTIC);
+        assertThat(contentionTracker.getCurrentStates().get(0).getLockWaitMillis()).isLessThan(2);
+    }
+
+    @Test
+    @DisplayName("Nothing should be tracked when the buy mode isn't adaptive")
+    public void recordOptimisticAttempt_notAdaptive() {
+        var contentionTracker = new ContentionTracker(BuyMode.OPTIMISTIC, 0.2, 2, 0, 100);
+
+        recordAttempts(contentionTracker, 20, true);
+        recordLockWaits(contentionTracker, 20, 50);
+
+        assertThat(contentionTracker.isEnabled()).isFalse();
+        assertThat(contentionTracker.getCurrentStates()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Mode should not change before the minimum dwell time passed")
+    public void selectMode_minimumDwellTime() {
+        var contentionTracker = new ContentionTracker(BuyMode.ADAPTIVE, 0.2, 2, TimeUnit.HOURS.toMillis(1), 100);
+
+        recordAttempts(contentionTracker, 20, true);
+
+        assertThat(contentionTracker.selectMode(PRODUCT_ID)).isEqualTo(BuyMode.OPTIMISTIC);
+        assertThat(contentionTracker.getHistory()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Only a bounded number of products should be tracked, the least recently used are forgotten")
+    public void recordOptimisticAttempt_boundedProducts() {
+        var contentionTracker = new ContentionTracker(BuyMode.ADAPTIVE, 0.2, 2, 0, 10);
+        recordAttempts(contentionTracker, 1, false);
+
+        for (int i = 0; i < 100; i++) {
+            contentionTracker.recordOptimisticAttempt(UUID.randomUUID(), false);
+            // the product keeps being bought
+            contentionTracker.selectMode(PRODUCT_ID);
+        }
+
+        assertThat(contentionTracker.getCurrentStates()).hasSize(10);
+        assertThat(contentionTracker.getCurrentStates())
+                .extracting(ContentionTracker.ProductContentionState::getProductId)
+                .contains(PRODUCT_ID);
+    }
+
+    private void recordAttempts(ContentionTracker contentionTracker, int count, boolean conflicted) {
+        for (int i = 0; i < count; i++) {
+            contentionTracker.recordOptimisticAttempt(PRODUCT_ID, conflicted);
+        }
+    }
+
+    private void recordLockWaits(ContentionTracker contentionTracker, int count, long waitMillis) {
+        for (int i = 0; i < count; i++) {
+            contentionTracker.recordLockWait(PRODUCT_ID, TimeUnit.MILLISECONDS.toNanos(waitMillis));
+        }
+    }
+}
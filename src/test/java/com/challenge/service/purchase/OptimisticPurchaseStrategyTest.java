@@ -0,0 +1,96 @@
+package com.challenge.service.purchase;
+
+import com.challenge.entity.Product;
+import com.challenge.entity.User;
+import com.challenge.exception.exceptions.BuyTransactionException;
+import com.challenge.mapper.ProductMapper;
+import com.challenge.repository.ProductRepository;
+import com.challenge.service.SellerLedgerService;
+import com.challenge.service.UserService;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.mapstruct.factory.Mappers;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OptimisticPurchaseStrategyTest {
+
+    private static final UUID PRODUCT_ID = UUID.randomUUID();
+    private static final UUID SELLER_ID = UUID.randomUUID();
+    private static final UUID BUYER_ID = UUID.randomUUID();
+
+    private final ProductRepository productRepository = mock(ProductRepository.class);
+    private final UserService userService = mock(UserService.class);
+    private final SellerLedgerService sellerLedgerService = mock(SellerLedgerService.class);
+    private final OptimisticPurchaseStrategy optimisticPurchaseStrategy = new OptimisticPurchaseStrategy(
+            productRepository, userService, Mappers.getMapper(ProductMapper.class), sellerLedgerService);
+
+    @Test
+    @DisplayName("A purchase should only change the loaded versioned entities, so conflicts fail the commit")
+    public void purchase_successfully() {
+        Product product = product(10);
+        User buyer = buyer(50);
+        when(productRepository.findById(PRODUCT_ID)).thenReturn(Optional.of(product));
+        when(userService.getUserById(BUYER_ID)).thenReturn(buyer);
+
+        Purchase purchase = optimisticPurchaseStrategy.purchase(PRODUCT_ID, 2, BUYER_ID);
+
+        assertThat(purchase.getTotalCost()).isEqualTo(20);
+        assertThat(purchase.getRemainingDeposit()).isEqualTo(30);
+        assertThat(purchase.getProduct().getAmountAvailable()).isEqualTo(8);
+        assertThat(product.getAmountAvailable()).isEqualTo(8);
+        assertThat(buyer.getDeposit()).isEqualTo(30);
+        verify(sellerLedgerService).creditSeller(SELLER_ID, 20);
+        verify(productRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("A purchase of more products than available should be rejected")
+    public void purchase_insufficientProduct() {
+        when(productRepository.findById(PRODUCT_ID)).thenReturn(Optional.of(product(1)));
+        when(userService.getUserById(BUYER_ID)).thenReturn(buyer(50));
+
+        assertThatThrownBy(() -> optimisticPurchaseStrategy.purchase(PRODUCT_ID, 2, BUYER_ID))
+                .isInstanceOf(BuyTransactionException.class);
+        verify(sellerLedgerService, never()).creditSeller(any(), anyInt());
+    }
+
+    @Test
+    @DisplayName("A purchase the buyer can't pay should be rejected")
+    public void purchase_insufficientFunds() {
+        when(productRepository.findById(PRODUCT_ID)).thenReturn(Optional.of(product(10)));
+        when(userService.getUserById(BUYER_ID)).thenReturn(buyer(5));
+
+        assertThatThrownBy(() -> optimisticPurchaseStrategy.purchase(PRODUCT_ID, 1, BUYER_ID))
+                .isInstanceOf(BuyTransactionException.class);
+        verify(sellerLedgerService, never()).creditSeller(any(), anyInt());
+    }
+
+    private Product product(int amountAvailable) {
+        return Product.builder()
+                .id(PRODUCT_ID)
+                .productName("PRODUCT")
+                .amountAvailable(amountAvailable)
+                .cost(10)
+                .seller(User.builder().id(SELLER_ID).username("seller").build())
+                .build();
+    }
+
+    private User buyer(int deposit) {
+        return User.builder()
+                .id(BUYER_ID)
+                .username("buyer")
+                .deposit(deposit)
+                .build();
+    }
+}
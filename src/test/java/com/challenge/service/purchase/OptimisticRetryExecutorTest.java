@@ -0,0 +1,76 @@
+package com.challenge.service.purchase;
+
+import com.challenge.exception.exceptions.BuyTransactionException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class OptimisticRetryExecutorTest {
+
+    private static final UUID PRODUCT_ID = UUID.randomUUID();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ContentionTracker contentionTracker = mock(ContentionTracker.class);
+    private final OptimisticRetryExecutor optimisticRetryExecutor =
+            new OptimisticRetryExecutor(meterRegistry, contentionTracker, 3, 0);
+
+    @Test
+    @DisplayName("An attempt failing on a version conflict should be retried")
+    public void execute_retriedAfterVersionConflict() {
+        var attempts = new AtomicInteger();
+
+        String result = optimisticRetryExecutor.execute(PRODUCT_ID, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new ObjectOptimisticLockingFailureException("Product", PRODUCT_ID);
+            }
+            return "bought";
+        });
+
+        assertThat(result).isEqualTo("bought");
+        assertThat(counter("vending.buy.optimistic.attempts")).isEqualTo(2);
+        assertThat(counter("vending.buy.optimistic.conflicts")).isEqualTo(1);
+        assertThat(counter("vending.buy.optimistic.retries")).isEqualTo(1);
+        assertThat(counter("vending.buy.optimistic.exhausted")).isZero();
+        verify(contentionTracker).recordOptimisticAttempt(PRODUCT_ID, true);
+        verify(contentionTracker).recordOptimisticAttempt(PRODUCT_ID, false);
+    }
+
+    @Test
+    @DisplayName("A buy should fail once all its attempts conflicted")
+    public void execute_retriesExhausted() {
+        assertThatThrownBy(() -> optimisticRetryExecutor.execute(PRODUCT_ID, () -> {
+            throw new ObjectOptimisticLockingFailureException("Product", PRODUCT_ID);
+        })).isInstanceOf(BuyTransactionException.class);
+
+        assertThat(counter("vending.buy.optimistic.attempts")).isEqualTo(3);
+        assertThat(counter("vending.buy.optimistic.conflicts")).isEqualTo(3);
+        assertThat(counter("vending.buy.optimistic.retries")).isEqualTo(2);
+        assertThat(counter("vending.buy.optimistic.exhausted")).isEqualTo(1);
+        verify(contentionTracker, times(3)).recordOptimisticAttempt(PRODUCT_ID, true);
+    }
+
+    @Test
+    @DisplayName("An attempt failing for another reason should not be retried")
+    public void execute_otherFailureNotRetried() {
+        assertThatThrownBy(() -> optimisticRetryExecutor.execute(PRODUCT_ID, () -> {
+            throw new IllegalStateException("Change not available");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(counter("vending.buy.optimistic.attempts")).isEqualTo(1);
+        assertThat(counter("vending.buy.optimistic.retries")).isZero();
+    }
+
+    private double counter(String name) {
+        return meterRegistry.counter(name).count();
+    }
+}